@@ -0,0 +1,292 @@
+package Concurrent_collections;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+    PersistentVector is an immutable list that never changes after it is created. Every "write" (add, set, removeLast)
+    returns a NEW vector and leaves the old one untouched, so anyone still holding the old one keeps seeing the same data.
+
+    How it stays cheap:
+    1. Elements are stored in a tree where every node has 32 children (a 32-way trie). 1 million elements is only 4 levels deep.
+    2. A write copies only the nodes on the path from the root to the changed leaf (path copying), O(log32 n) ~ at most 7 small array copies.
+       All the other nodes are shared between the old and the new vector (structural sharing).
+    3. The last (up to) 32 elements live in a separate "tail" array, so add() at the end is usually a single small array copy.
+
+    Compare with CopyOnWriteArrayList, which copies the whole backing array on every write, O(n).
+
+    Reads (get, iteration, stream) never lock and never copy, they simply walk the tree.
+
+    ref: Phil Bagwell, "Ideal Hash Trees" and Clojure's PersistentVector.
+ */
+public final class PersistentVector<T> implements Iterable<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS; // 32
+    private static final int MASK = WIDTH - 1;
+
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int count;
+    private final int shift;      // depth of the tree in bits, BITS for a single level
+    private final Object[] root;  // inner nodes are Object[] of child nodes, leaves are Object[] of elements
+    private final Object[] tail;
+
+    private PersistentVector(int count, int shift, Object[] root, Object[] tail) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    public static <T> PersistentVector<T> of(Collection<? extends T> elements) {
+        PersistentVector<T> vector = empty();
+        for (T element : elements) {
+            vector = vector.add(element);
+        }
+        return vector;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        Objects.checkIndex(index, count);
+        return (T) leafFor(index)[index & MASK];
+    }
+
+    // Appends to the end, O(1) while the tail has room and O(log32 n) when the full tail is pushed into the tree.
+    public PersistentVector<T> add(T element) {
+        if (count - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(count + 1, shift, root, newTail);
+        }
+        Object[] newRoot;
+        int newShift = shift;
+        // root overflow, the tree grows by one level
+        if ((count >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(count + 1, newShift, newRoot, new Object[]{element});
+    }
+
+    // Replaces the element at index, copies only the path to that leaf, O(log32 n).
+    public PersistentVector<T> set(int index, T element) {
+        Objects.checkIndex(index, count);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(count, shift, root, newTail);
+        }
+        return new PersistentVector<>(count, shift, doSet(shift, root, index, element), tail);
+    }
+
+    // Removes the last element, O(log32 n).
+    public PersistentVector<T> removeLast() {
+        if (count == 0) {
+            throw new NoSuchElementException("vector is empty");
+        }
+        if (count == 1) {
+            return empty();
+        }
+        if (count - tailOffset() > 1) {
+            return new PersistentVector<>(count - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        // the tail becomes empty, pull the last leaf out of the tree and use it as the new tail
+        Object[] newTail = leafFor(count - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = new Object[WIDTH];
+        }
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(count - 1, newShift, newRoot, newTail);
+    }
+
+    public List<T> toList() {
+        List<T> list = new ArrayList<>(count);
+        forEach(list::add);
+        return list;
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // Leaf by leaf, no tree walk per element.
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        spliterator().forEachRemaining(action);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return new VectorSpliterator(0, count);
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    private int tailOffset() {
+        return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int index) {
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int subIndex = ((count - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        Object[] nodeToInsert;
+        if (level == BITS) {
+            nodeToInsert = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[subIndex];
+            nodeToInsert = child != null ? pushTail(level - BITS, child, tailNode) : newPath(level - BITS, tailNode);
+        }
+        result[subIndex] = nodeToInsert;
+        return result;
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int subIndex = ((count - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] newChild = popTail(level - BITS, (Object[]) node[subIndex]);
+            if (newChild == null && subIndex == 0) {
+                return null;
+            }
+            Object[] result = node.clone();
+            result[subIndex] = newChild;
+            return result;
+        }
+        if (subIndex == 0) {
+            return null;
+        }
+        Object[] result = node.clone();
+        result[subIndex] = null;
+        return result;
+    }
+
+    private static Object[] doSet(int level, Object[] node, int index, Object element) {
+        Object[] result = node.clone();
+        if (level == 0) {
+            result[index & MASK] = element;
+        } else {
+            int subIndex = (index >>> level) & MASK;
+            result[subIndex] = doSet(level - BITS, (Object[]) node[subIndex], index, element);
+        }
+        return result;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    // Walks one leaf array at a time instead of descending the tree for every element.
+    private final class VectorSpliterator implements Spliterator<T> {
+        private int index;
+        private final int end;
+        private Object[] leaf;
+        private int leafBase = -1;
+
+        VectorSpliterator(int from, int end) {
+            this.index = from;
+            this.end = end;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end) {
+                return false;
+            }
+            int base = index & ~MASK;
+            if (base != leafBase) {
+                leaf = leafFor(index);
+                leafBase = base;
+            }
+            action.accept((T) leaf[index & MASK]);
+            index++;
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super T> action) {
+            while (index < end) {
+                Object[] current = leafFor(index);
+                int stop = Math.min(end, (index & ~MASK) + WIDTH);
+                for (int i = index; i < stop; i++) {
+                    action.accept((T) current[i & MASK]);
+                }
+                index = stop;
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = ((index + end) >>> 1) & ~MASK; // split on leaf boundaries
+            if (mid <= index) {
+                return null;
+            }
+            Spliterator<T> prefix = new VectorSpliterator(index, mid);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package Concurrent_collections;
+
+import TemporaryClasses.Product;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/*
+    VersionedList is a thread safe list built for "many readers streaming while one or more writers keep updating" (MVCC, multi version concurrency control).
+
+    -> The current version is a PersistentVector held in an AtomicReference.
+    -> A reader calls snapshot() (or stream()) and pins that version. Writers can never change it, so the stream is never affected by
+       concurrent modification and never throws ConcurrentModificationException.
+    -> A writer builds the next version from the current one (O(log32 n) thanks to structural sharing) and publishes it with compareAndSet.
+       If another writer published first the CAS fails and the writer simply retries on top of the newer version. No locks anywhere.
+    -> Old versions are garbage collected automatically once no reader is holding them.
+
+    VersionedList vs CopyOnWriteArrayList:
+        CopyOnWriteArrayList -> every write copies the whole array, O(n), and writers are serialized by a lock.
+        VersionedList        -> every write copies ~log32(n) small arrays, lock free, readers are never blocked.
+
+    Note: updateFn passed to update() may run more than once under contention, so it must not have side effects.
+ */
+public final class VersionedList<T> {
+    private final AtomicReference<PersistentVector<T>> current;
+
+    public VersionedList() {
+        this.current = new AtomicReference<>(PersistentVector.empty());
+    }
+
+    public VersionedList(Collection<? extends T> elements) {
+        this.current = new AtomicReference<>(PersistentVector.of(elements));
+    }
+
+    // Pins the current version, the returned vector never changes.
+    public PersistentVector<T> snapshot() {
+        return current.get();
+    }
+
+    public Stream<T> stream() {
+        return snapshot().stream();
+    }
+
+    public Stream<T> parallelStream() {
+        return snapshot().parallelStream();
+    }
+
+    public int size() {
+        return snapshot().size();
+    }
+
+    public T get(int index) {
+        return snapshot().get(index);
+    }
+
+    public void add(T element) {
+        update(vector -> vector.add(element));
+    }
+
+    public void set(int index, T element) {
+        update(vector -> vector.set(index, element));
+    }
+
+    public void removeLast() {
+        update(PersistentVector::removeLast);
+    }
+
+    // Applies several changes as one atomic version, readers see either none or all of them.
+    public PersistentVector<T> update(UnaryOperator<PersistentVector<T>> updateFn) {
+        while (true) {
+            PersistentVector<T> base = current.get();
+            PersistentVector<T> next = updateFn.apply(base);
+            if (current.compareAndSet(base, next)) {
+                return next;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        VersionedList<Product> catalog = new VersionedList<>();
+        for (int i = 0; i < 100_000; i++) {
+            catalog.add(new Product(i, "Product " + i, 1000f + i % 500));
+        }
+
+        // writer thread keeps updating prices while the main thread streams the catalog
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) {
+                int index = i % 100_000;
+                Product old = catalog.get(index);
+                catalog.set(index, new Product(old.id, old.name, old.price + 1));
+            }
+        });
+        writer.start();
+
+        for (int round = 0; round < 5; round++) {
+            PersistentVector<Product> snapshot = catalog.snapshot();
+            // both passes see exactly the same version even though the writer is running
+            double total = snapshot.stream().mapToDouble(Product::getPrice).sum();
+            double again = snapshot.parallelStream().mapToDouble(Product::getPrice).sum();
+            System.out.println("round " + round + ": size=" + snapshot.size() + ", total=" + total + ", consistent=" + (total == again));
+        }
+        writer.join();
+        System.out.println("final total: " + catalog.stream().mapToDouble(Product::getPrice).sum());
+    }
+}
@@ -377,6 +377,8 @@ Interview questions:
 13. What happens if you modify a collection while streaming it?
 ->  Modifying a collection while streaming it is unsafe. The behavior is undefined, which means it may throw an exception or produce inconsistent results.
     To be safe, either use a copy of the collection or use concurrent collections like CopyOnWriteArrayList.
+    CopyOnWriteArrayList copies the whole array on every write, for write heavy lists use Concurrent_collections.VersionedList,
+    where each stream pins an immutable snapshot and a write copies only O(log n) nodes.
     e.g. list.stream().forEach(n -> {
             list.add(4); // Structural modification during stream
          });
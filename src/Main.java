@@ -1,15 +1,25 @@
-//TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
-// click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
+import Query_server.QueryCatalog;
+import Query_server.QueryServer;
+
+import java.io.IOException;
+
+/*
+    Starts the query server on localhost and keeps it running, so queries are answered by a warmed up JVM
+    against data that is already in memory instead of paying JVM startup for every example.
+
+    usage: Main [port] [products] [employees]
+    then run Query_server.QueryLoadClient, or try it by hand: `nc localhost 9090` and type "COUNT products WHERE price > 50000".
+ */
 public class Main {
-    public static void main(String[] args) {
-        //TIP Press <shortcut actionId="ShowIntentionActions"/> with your caret at the highlighted text
-        // to see how IntelliJ IDEA suggests fixing it.
-        System.out.printf("Hello and welcome!");
-
-        for (int i = 1; i <= 5; i++) {
-            //TIP Press <shortcut actionId="Debug"/> to start debugging your code. We have set one <icon src="AllIcons.Debugger.Db_set_breakpoint"/> breakpoint
-            // for you, but you can always add more by pressing <shortcut actionId="ToggleLineBreakpoint"/>.
-            System.out.println("i = " + i);
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : QueryServer.DEFAULT_PORT;
+        int products = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int employees = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+
+        QueryCatalog catalog = QueryCatalog.generate(products, employees);
+        try (QueryServer server = new QueryServer(catalog, port)) {
+            System.out.println("Query server listening on localhost:" + server.port() + " with " + products + " products and " + employees + " employees");
+            server.serve();
         }
     }
-}
\ No newline at end of file
+}
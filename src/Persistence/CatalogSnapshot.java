@@ -0,0 +1,160 @@
+package Persistence;
+
+import TemporaryClasses.Product;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+    Full copy of the catalog at one log sequence number, written and read through memory mapped files.
+
+    File layout (snapshot-<last seq>.snap):
+        header   int magic, int layout version, int ProductFormat.VERSION, long lastSeq, long records, int segments
+        table    per segment: long offset, long bytes, int records
+        data     the products of every segment encoded back to back with ProductFormat
+
+    -> The records are cut into segments of SEGMENT_RECORDS. Segments are encoded and decoded in parallel, each through its own
+       memory mapped region (a single MappedByteBuffer can't exceed 2 GB anyway), so loading 50M records uses every core
+       instead of one thread calling read() in a loop.
+    -> The file is written as .tmp, forced, then atomically renamed and the directory forced, so a crash in the middle never leaves
+       a half written snapshot with a valid name and a returned snapshot is on disk. Recovery uses the newest snapshot and replays
+       only the log after its lastSeq.
+ */
+final class CatalogSnapshot {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_RECORDS = 1 << 20;
+    private static final int HEADER = 4 + 4 + 4 + 8 + 8 + 4;
+    private static final int TABLE_ENTRY = 8 + 8 + 4;
+
+    private CatalogSnapshot() {
+    }
+
+    static Path write(Path directory, long lastSeq, List<Product> products) {
+        int segments = Math.max(1, (products.size() + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS);
+        long[] bytes = new long[segments];
+        IntStream.range(0, segments).parallel().forEach(s -> {
+            long size = 0;
+            for (int i = segmentStart(s), end = segmentEnd(s, products.size()); i < end; i++) {
+                size += ProductFormat.encodedSize(products.get(i));
+            }
+            bytes[s] = size;
+        });
+        long[] offsets = new long[segments];
+        long offset = HEADER + (long) TABLE_ENTRY * segments;
+        for (int s = 0; s < segments; s++) {
+            offsets[s] = offset;
+            offset += bytes[s];
+        }
+
+        Path target = directory.resolve(String.format("snapshot-%020d.snap", lastSeq));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            IntStream.range(0, segments).parallel().forEach(s -> {
+                if (bytes[s] == 0) {
+                    return;
+                }
+                try {
+                    MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, offsets[s], bytes[s]);
+                    for (int i = segmentStart(s), end = segmentEnd(s, products.size()); i < end; i++) {
+                        ProductFormat.encode(products.get(i), data);
+                    }
+                    data.force();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            ByteBuffer header = ByteBuffer.allocate(HEADER + TABLE_ENTRY * segments);
+            header.putInt(MAGIC).putInt(VERSION).putInt(ProductFormat.VERSION).putLong(lastSeq).putLong(products.size()).putInt(segments);
+            for (int s = 0; s < segments; s++) {
+                header.putLong(offsets[s]).putLong(bytes[s]).putInt(segmentEnd(s, products.size()) - segmentStart(s));
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ChangeLog.forceDirectory(directory); // the rename is durable before the caller deletes what the snapshot covers
+        return target;
+    }
+
+    // Loads the snapshot in parallel, sink is called from several threads. Returns the snapshot's lastSeq.
+    static long load(Path file, Consumer<Product> sink) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalStateException(file + " is not a catalog snapshot");
+            }
+            int format = header.getInt();
+            if (format != ProductFormat.VERSION) {
+                throw new IllegalStateException(file + " has format version " + format + ", expected " + ProductFormat.VERSION);
+            }
+            long lastSeq = header.getLong();
+            header.getLong(); // record count, informational
+            int segments = header.getInt();
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, (long) TABLE_ENTRY * segments);
+            IntStream.range(0, segments).parallel().forEach(s -> {
+                long offset = table.getLong(s * TABLE_ENTRY);
+                long bytes = table.getLong(s * TABLE_ENTRY + 8);
+                int records = table.getInt(s * TABLE_ENTRY + 16);
+                if (records == 0) {
+                    return;
+                }
+                try {
+                    MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+                    for (int i = 0; i < records; i++) {
+                        sink.accept(ProductFormat.decode(data));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return lastSeq;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // newest first
+    static List<Path> list(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().matches("snapshot-\\d{20}\\.snap"))
+                    .sorted((a, b) -> b.compareTo(a)).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Optional<Path> latest(Path directory) {
+        return list(directory).stream().findFirst();
+    }
+
+    private static int segmentStart(int segment) {
+        return segment * SEGMENT_RECORDS;
+    }
+
+    private static int segmentEnd(int segment, int size) {
+        return (int) Math.min(size, (long) (segment + 1) * SEGMENT_RECORDS);
+    }
+}
@@ -0,0 +1,16 @@
+package Persistence;
+
+import TemporaryClasses.Product;
+
+// One record change in the log: PUT inserts or replaces the product with that id, DELETE removes it (product is null).
+public record Change(Kind kind, int id, Product product) {
+    public enum Kind { PUT, DELETE }
+
+    public static Change put(Product product) {
+        return new Change(Kind.PUT, product.getId(), product);
+    }
+
+    public static Change delete(int id) {
+        return new Change(Kind.DELETE, id, null);
+    }
+}
@@ -0,0 +1,437 @@
+package Persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/*
+    Append-only write-ahead log of Changes with group commit.
+
+    File layout: the log is a sequence of segment files log-<first seq>.wal, each starts with [int MAGIC][int ProductFormat.VERSION]
+    (a segment of another version is rejected), followed by records
+        [int bodyLength][int crc32c(body)][body = long seq, byte kind, int id, product encoded with ProductFormat (PUT only)]
+    The CRC detects a torn (half written) record at the end of the log after a crash, replay stops there and cuts it off.
+
+    Group commit:
+    -> Callers never touch the file. append() puts the change on a bounded queue and returns a future (a full queue blocks the caller).
+    -> One writer thread takes everything that is queued (drainTo), encodes the whole batch into one direct buffer, writes it with
+       a single write() and, depending on Durability, one force() for the whole batch. Then it applies the changes in sequence order
+       (write-ahead: a change is applied only after it is in the log) and completes the futures.
+    -> The more callers are waiting on a force(), the bigger the next batch, so the cost of one fsync is shared by many changes.
+
+    Segments rotate when they get large and at every snapshot barrier, so old segments can be deleted once a snapshot covers them.
+    Creating a segment also forces the directory, otherwise the new file could vanish in a power loss with its forced changes.
+
+    Failures: a change larger than the write buffer is rejected by append(). If writing or forcing a batch fails, the segment is cut
+    back to where the batch started and the log stops, so the changes of a failed batch don't come back after a restart.
+
+    Shutdown: append() re-checks after queueing, and close() fails whatever is still queued once the writer has stopped,
+    so no future is left uncompleted, even when append() races with close() or with a failing writer.
+ */
+final class ChangeLog implements AutoCloseable {
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int MAX_BATCH = 1 << 14;
+    private static final int BUFFER_SIZE = 4 << 20;
+    private static final long SEGMENT_BYTES = 256L << 20;
+    private static final int MAGIC = 0x57414C47; // "WALG"
+    private static final int SEGMENT_HEADER = 8; // magic + version
+    private static final int HEADER = 8;         // length + crc
+    private static final int FIXED_BODY = 8 + 1 + 4; // seq + kind + id
+    private static final boolean WINDOWS = System.getProperty("os.name").startsWith("Windows");
+
+    private final Path directory;
+    private final Durability durability;
+    private final long asyncForceNanos;
+    private final ObjLongConsumer<Change> applier;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32C crc = new CRC32C();
+
+    private FileChannel segment;
+    private long segmentBytes;
+    private long nextSeq;
+    private long lastForce = System.nanoTime();
+    private boolean dirty;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    // applier gets every change with its seq, on the writer thread, after the change is logged
+    ChangeLog(Path directory, long nextSeq, Durability durability, long asyncForceMillis, ObjLongConsumer<Change> applier) {
+        this.directory = directory;
+        this.nextSeq = nextSeq;
+        this.durability = durability;
+        this.asyncForceNanos = TimeUnit.MILLISECONDS.toNanos(asyncForceMillis);
+        this.applier = applier;
+        openSegment();
+        this.writer = new Thread(this::writeLoop, "change-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Completes with the sequence number of the change once it is logged with the configured durability and applied.
+    // A change that can't fit in the write buffer is rejected here, on the caller's thread, and never reaches the writer.
+    CompletableFuture<Long> append(Change change) {
+        int body = FIXED_BODY + (change.kind() == Change.Kind.PUT ? ProductFormat.encodedSize(change.product()) : 0);
+        if (HEADER + body > BUFFER_SIZE) {
+            throw new IllegalArgumentException("change of " + body + " bytes is larger than the log buffer (" + BUFFER_SIZE + " bytes)");
+        }
+        Pending pending = new Pending(change, body, null);
+        enqueue(pending);
+        return pending.done;
+    }
+
+    // Runs action on the writer thread between two batches with the seq of the last logged change, then starts a new segment.
+    // Every change before the barrier is applied, none after it, which is what a consistent snapshot needs.
+    <T> CompletableFuture<T> barrier(LongFunction<T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Pending pending = new Pending(null, 0, seq -> {
+            try {
+                result.complete(action.apply(seq));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        pending.done.whenComplete((seq, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error); // e.g. closed before the barrier was reached
+            }
+        });
+        enqueue(pending);
+        return result;
+    }
+
+    // Deletes the segments that only contain changes up to seq (covered by a snapshot).
+    void deleteSegmentsUpTo(long seq) {
+        List<Path> segments = segments(directory);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstSeq(segments.get(i + 1)) <= seq + 1) {
+                delete(segments.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failQueued(new IllegalStateException("change log is closed"));
+        try {
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void enqueue(Pending pending) {
+        if (closed) {
+            throw new IllegalStateException("change log is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("change log failed", failure);
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while appending", e);
+        }
+        // close() or a failure may have happened after the check above and the writer may be gone already.
+        // If the entry is still queued take it back, otherwise the writer or failQueued() owns it and completes it.
+        if ((closed || failure != null) && queue.remove(pending)) {
+            throw new IllegalStateException(closed ? "change log is closed" : "change log failed", failure);
+        }
+    }
+
+    private void failQueued(Throwable cause) {
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.forEach(pending -> pending.done.completeExceptionally(cause));
+    }
+
+    // ---------------------------------------------------------------- writer thread
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Pending first = queue.poll(asyncForceNanos > 0 ? asyncForceNanos : 10_000_000, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    forceIfDue();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                commit(batch);
+                batch.clear();
+            }
+        } catch (Throwable e) {
+            failure = e;
+            batch.forEach(pending -> pending.done.completeExceptionally(e));
+            failQueued(e);
+        }
+    }
+
+    private void commit(List<Pending> batch) throws IOException {
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            if (pending.barrier != null) {
+                // log and apply everything before the barrier first
+                commitChanges(batch.subList(from, i));
+                from = i + 1;
+                pending.barrier.accept(nextSeq - 1);
+                rotate();
+                pending.done.complete(nextSeq - 1);
+            }
+        }
+        commitChanges(batch.subList(from, batch.size()));
+        if (segmentBytes >= SEGMENT_BYTES) {
+            rotate();
+        }
+    }
+
+    private void commitChanges(List<Pending> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        long firstSeq = nextSeq;
+        long batchStart = segmentBytes;
+        try {
+            for (Pending pending : changes) {
+                pending.seq = nextSeq++;
+                encode(pending, pending.seq);
+            }
+            flushBuffer();
+            if (durability == Durability.GROUP_COMMIT) {
+                segment.force(false);
+                dirty = false;
+            } else {
+                dirty = true;
+                forceIfDue();
+            }
+        } catch (Throwable e) {
+            // none of the batch is applied or completed, so none of it may be replayed after a restart either
+            discardBatch(batchStart, firstSeq, e);
+            throw e;
+        }
+        for (Pending pending : changes) {
+            applier.accept(pending.change, pending.seq);
+        }
+        for (Pending pending : changes) {
+            pending.done.complete(pending.seq);
+        }
+        assert nextSeq - firstSeq == changes.size();
+    }
+
+    private void encode(Pending pending, long seq) throws IOException {
+        Change change = pending.change;
+        int body = pending.body; // append() made sure it fits into an empty buffer
+        if (buffer.remaining() < HEADER + body) {
+            flushBuffer();
+        }
+        int start = buffer.position();
+        buffer.position(start + HEADER);
+        buffer.putLong(seq);
+        buffer.put((byte) change.kind().ordinal());
+        buffer.putInt(change.id());
+        if (change.kind() == Change.Kind.PUT) {
+            ProductFormat.encode(change.product(), buffer);
+        }
+        crc.reset();
+        crc.update(buffer.duplicate().position(start + HEADER).limit(start + HEADER + body));
+        buffer.putInt(start, body);
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentBytes += segment.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Cuts the segment back to where the failed batch started, a part of it may have been written by an earlier flushBuffer().
+    private void discardBatch(long batchStart, long firstSeq, Throwable cause) {
+        buffer.clear();
+        nextSeq = firstSeq;
+        try {
+            segment.truncate(batchStart);
+            segment.force(false);
+            segmentBytes = batchStart;
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void forceIfDue() throws IOException {
+        if (dirty && durability == Durability.ASYNC && System.nanoTime() - lastForce >= asyncForceNanos) {
+            segment.force(false);
+            dirty = false;
+            lastForce = System.nanoTime();
+        }
+    }
+
+    private void rotate() throws IOException {
+        segment.force(false);
+        segment.close();
+        dirty = false;
+        openSegment();
+    }
+
+    private void openSegment() {
+        try {
+            // a segment named after nextSeq can't hold any replayed change, so starting it empty is safe
+            segment = FileChannel.open(directory.resolve(String.format("log-%020d.wal", nextSeq)),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER).putInt(MAGIC).putInt(ProductFormat.VERSION).flip();
+            while (header.hasRemaining()) {
+                segment.write(header);
+            }
+            segmentBytes = SEGMENT_HEADER;
+            forceDirectory(directory); // the new file itself must survive a crash, not only the data forced into it
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Pending {
+        final Change change;
+        final int body; // encoded size of change without the record header
+        final Consumer<Long> barrier;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+        long seq;
+
+        Pending(Change change, int body, Consumer<Long> barrier) {
+            this.change = change;
+            this.body = body;
+            this.barrier = barrier;
+        }
+    }
+
+    // ---------------------------------------------------------------- recovery
+
+    /*
+        Replays every change with seq > afterSeq in order and returns the seq of the last valid change (afterSeq if there is none).
+        A torn or corrupt record at the end of the newest segment is cut off. Corruption in an older segment means changes in the
+        middle of the history are lost, that is reported instead of silently skipped. So is a segment of another format version.
+     */
+    static long replay(Path directory, long afterSeq, ObjLongConsumer<Change> applier) {
+        List<Path> segments = segments(directory);
+        long lastSeq = afterSeq;
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            if (i + 1 < segments.size() && firstSeq(segments.get(i + 1)) <= afterSeq + 1) {
+                continue; // fully covered by the snapshot
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                boolean last = i + 1 == segments.size();
+                if (size < SEGMENT_HEADER) {
+                    if (!last) {
+                        throw new IllegalStateException("change log segment " + path + " has no header");
+                    }
+                    channel.truncate(0); // crashed while creating it, nothing was logged in it
+                    continue;
+                }
+                MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (log.getInt(0) != MAGIC) {
+                    throw new IllegalStateException(path + " is not a change log segment");
+                }
+                if (log.getInt(4) != ProductFormat.VERSION) {
+                    throw new IllegalStateException(path + " has format version " + log.getInt(4) + ", expected " + ProductFormat.VERSION);
+                }
+                log.position(SEGMENT_HEADER);
+                CRC32C check = new CRC32C();
+                int valid = SEGMENT_HEADER;
+                while (log.remaining() >= HEADER) {
+                    int body = log.getInt(valid);
+                    int expectedCrc = log.getInt(valid + 4);
+                    if (body < FIXED_BODY || valid + HEADER + body > size) {
+                        break;
+                    }
+                    check.reset();
+                    check.update(log.duplicate().position(valid + HEADER).limit(valid + HEADER + body));
+                    if ((int) check.getValue() != expectedCrc) {
+                        break;
+                    }
+                    log.position(valid + HEADER);
+                    long seq = log.getLong();
+                    Change.Kind kind = Change.Kind.values()[log.get()];
+                    int id = log.getInt();
+                    Change change = kind == Change.Kind.PUT ? Change.put(ProductFormat.decode(log)) : Change.delete(id);
+                    if (seq > lastSeq) {
+                        applier.accept(change, seq);
+                        lastSeq = seq;
+                    }
+                    valid += HEADER + body;
+                    log.position(valid);
+                }
+                if (valid < size) {
+                    if (!last) {
+                        throw new IllegalStateException("corrupt change log segment " + path + " at byte " + valid);
+                    }
+                    channel.truncate(valid);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return lastSeq;
+    }
+
+    static List<Path> segments(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().matches("log-\\d{20}\\.wal")).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Makes file creations, renames and deletes in directory durable (fsync of the directory itself).
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!WINDOWS) {
+                throw new UncheckedIOException(e);
+            }
+            // Windows can't open a directory as a file, NTFS journals its directory changes anyway
+        }
+    }
+
+    private static long firstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(4, 24));
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package Persistence;
+
+/*
+    How long a change waits before its future completes, i.e. what survives a crash.
+        NONE         -> written to the OS page cache, never forced by us. Survives a JVM crash, not a power failure.
+        ASYNC        -> like NONE, plus the log is forced every few milliseconds in the background, a power failure loses at most that window.
+        GROUP_COMMIT -> the future completes only after force(), so a completed change is on disk. All changes that queued up while
+                        the previous force() was running are written and forced together (one fsync for the whole group).
+ */
+public enum Durability {
+    NONE, ASYNC, GROUP_COMMIT
+}
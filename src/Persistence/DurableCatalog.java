@@ -0,0 +1,280 @@
+package Persistence;
+
+import TemporaryClasses.Product;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/*
+    The product catalog kept in memory (ConcurrentHashMap by id) and made durable with a ChangeLog plus periodic snapshots.
+
+    Writing: put()/delete() go through the change log (group commit), the map is updated by the log writer after the change is logged.
+    Reading: get()/values() read the map directly, no I/O.
+
+    Snapshots: every snapshotEveryChanges changes (or on snapshot()) a barrier in the log marks an exact sequence number S,
+    the snapshot file is written in the background, and the log segments it covers are deleted. This keeps recovery time bounded
+    no matter how long the catalog has been running.
+    -> The barrier is O(1) on the log writer thread, it only publishes S. Writes go on while the snapshot is taken.
+    -> Every map value is a Version (product, seq, previous). While a snapshot is running, a change keeps the version that was
+       current at S as its previous (at most one extra version per key, deletes leave a tombstone). The snapshot thread copies
+       the map by taking, per key, the newest version with seq <= S, so it sees the catalog exactly as it was at S.
+    -> When the snapshot is done the history is switched off and the snapshot thread drops the tombstones and old versions again.
+
+    Recovery (open): load the newest snapshot in parallel, then replay only the log after it.
+
+    e.g.
+        try (DurableCatalog catalog = DurableCatalog.open(Path.of("catalog-data"), Durability.GROUP_COMMIT, 5_000_000)) {
+            catalog.put(new Product(1, "HP Laptop", 25000f));
+        }
+ */
+public final class DurableCatalog implements AutoCloseable {
+    private static final long ASYNC_FORCE_MILLIS = 10;
+    private static final long NO_SNAPSHOT = -1;
+
+    private final Path directory;
+    private final ConcurrentHashMap<Integer, Version> products = new ConcurrentHashMap<>(1 << 16);
+    private final ChangeLog log;
+    private final long snapshotEveryChanges;
+    private final AtomicLong changesSinceSnapshot = new AtomicLong();
+    private final AtomicReference<CompletableFuture<Path>> runningSnapshot = new AtomicReference<>();
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalog-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long snapshotSeq = NO_SNAPSHOT; // S of the running snapshot, read by the log writer
+    private volatile int size; // only changed by the thread applying changes
+
+    private DurableCatalog(Path directory, Durability durability, long snapshotEveryChanges) {
+        this.directory = directory;
+        this.snapshotEveryChanges = snapshotEveryChanges;
+        long lastSeq = CatalogSnapshot.latest(directory)
+                .map(snapshot -> CatalogSnapshot.load(snapshot, product -> products.put(product.getId(), new Version(product, 0, null))))
+                .orElse(0L);
+        size = products.size();
+        lastSeq = ChangeLog.replay(directory, lastSeq, this::apply);
+        this.log = new ChangeLog(directory, lastSeq + 1, durability, ASYNC_FORCE_MILLIS, this::apply);
+    }
+
+    public static DurableCatalog open(Path directory, Durability durability, long snapshotEveryChanges) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new DurableCatalog(directory, durability, snapshotEveryChanges);
+    }
+
+    public CompletableFuture<Long> putAsync(Product product) {
+        return append(Change.put(product));
+    }
+
+    public CompletableFuture<Long> deleteAsync(int id) {
+        return append(Change.delete(id));
+    }
+
+    public void put(Product product) {
+        putAsync(product).join();
+    }
+
+    public void delete(int id) {
+        deleteAsync(id).join();
+    }
+
+    public Product get(int id) {
+        Version version = products.get(id);
+        return version == null ? null : version.product;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // weakly consistent view of the current products, like iterating a ConcurrentHashMap
+    public Stream<Product> values() {
+        return products.values().stream().map(version -> version.product).filter(Objects::nonNull);
+    }
+
+    // Takes a snapshot now (or joins the one that is running), completes with the snapshot file once it is on disk.
+    public CompletableFuture<Path> snapshot() {
+        CompletableFuture<Path> started = new CompletableFuture<>();
+        CompletableFuture<Path> running = runningSnapshot.compareAndExchange(null, started);
+        if (running != null) {
+            return running;
+        }
+        log.barrier(seq -> {
+            snapshotSeq = seq; // from the next change on the writer keeps the version as of seq
+            return seq;
+        }).thenApplyAsync(this::writeSnapshot, snapshotWriter).whenComplete((file, error) -> {
+            runningSnapshot.set(null);
+            if (error != null) {
+                started.completeExceptionally(error);
+            } else {
+                started.complete(file);
+            }
+        });
+        return started;
+    }
+
+    @Override
+    public void close() {
+        log.close();
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Long> append(Change change) {
+        CompletableFuture<Long> done = log.append(change);
+        if (changesSinceSnapshot.incrementAndGet() >= snapshotEveryChanges && runningSnapshot.get() == null) {
+            changesSinceSnapshot.set(0);
+            snapshot();
+        }
+        return done;
+    }
+
+    // snapshot thread
+    private Path writeSnapshot(long seq) {
+        try {
+            List<Product> asOfSeq = products.values().parallelStream().map(version -> version.asOf(seq)).filter(Objects::nonNull).toList();
+            Path file = CatalogSnapshot.write(directory, seq, asOfSeq); // durable, directory included, when it returns
+            log.deleteSegmentsUpTo(seq);
+            List<Path> snapshots = CatalogSnapshot.list(directory);
+            for (Path older : snapshots.subList(1, snapshots.size())) {
+                Files.deleteIfExists(older);
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            snapshotSeq = NO_SNAPSHOT;
+            dropHistory();
+        }
+    }
+
+    // Removes tombstones and old versions once no snapshot needs them. Conditional, a version the writer replaced meanwhile is kept.
+    private void dropHistory() {
+        products.forEach((id, version) -> {
+            if (version.product == null) {
+                products.remove(id, version);
+            } else if (version.previous != null) {
+                products.replace(id, version, new Version(version.product, version.seq, null));
+            }
+        });
+    }
+
+    // runs on the log writer thread (and on the opening thread during replay), in sequence order
+    private void apply(Change change, long seq) {
+        Version current = products.get(change.id());
+        boolean existed = current != null && current.product != null;
+        if (change.kind() == Change.Kind.DELETE && !existed) {
+            return;
+        }
+        long keepAsOf = snapshotSeq;
+        Version previous = keepAsOf == NO_SNAPSHOT || current == null ? null : current.seq <= keepAsOf ? current : current.previous;
+        if (change.kind() == Change.Kind.PUT) {
+            products.put(change.id(), new Version(change.product(), seq, previous));
+            if (!existed) {
+                size++;
+            }
+        } else {
+            if (previous == null) {
+                products.remove(change.id());
+            } else {
+                products.put(change.id(), new Version(null, seq, previous)); // tombstone, the snapshot still needs previous
+            }
+            size--;
+        }
+    }
+
+    // product == null is a tombstone
+    private static final class Version {
+        final Product product;
+        final long seq;
+        final Version previous;
+
+        Version(Product product, long seq, Version previous) {
+            this.product = product;
+            this.seq = seq;
+            this.previous = previous;
+        }
+
+        Product asOf(long seq) {
+            Version version = this;
+            while (version != null && version.seq > seq) {
+                version = version.previous;
+            }
+            return version == null ? null : version.product;
+        }
+    }
+
+    // args: [records] [directory], without a directory the demo works in a temporary one and deletes it at the end
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        boolean temporary = args.length < 2;
+        Path directory = temporary ? Files.createTempDirectory("durable-catalog") : Path.of(args[1]);
+        try {
+            run(directory, records);
+        } finally {
+            if (temporary) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : files.toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    private static void run(Path directory, int records) throws IOException {
+        try (DurableCatalog catalog = DurableCatalog.open(directory, Durability.GROUP_COMMIT, Long.MAX_VALUE)) {
+            // one producer keeps many changes in flight, each force() commits the whole group
+            long start = System.nanoTime();
+            List<CompletableFuture<Long>> inFlight = new ArrayList<>();
+            for (int i = 0; i < records; i++) {
+                inFlight.add(catalog.putAsync(new Product(i, "Product " + i, 1000f + i % 5000)));
+                if (inFlight.size() == 50_000) {
+                    CompletableFuture.allOf(inFlight.toArray(CompletableFuture<?>[]::new)).join();
+                    inFlight.clear();
+                }
+            }
+            CompletableFuture.allOf(inFlight.toArray(CompletableFuture<?>[]::new)).join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("group commit: %d puts in %.2f s, %.0f ops/sec%n", records, seconds, records / seconds);
+
+            // writes keep going while the snapshot is taken, the snapshot still holds the catalog as of its barrier
+            start = System.nanoTime();
+            CompletableFuture<Path> snapshot = catalog.snapshot();
+            for (int i = 0; i < 100_000; i++) {
+                catalog.putAsync(new Product(i, "Updated " + i, 99f));
+            }
+            catalog.delete(records - 1);
+            Path file = snapshot.join();
+            System.out.printf("snapshot %s (%d MB) in %d ms, with 100000 writes running next to it%n",
+                    file.getFileName(), Files.size(file) >> 20, (System.nanoTime() - start) / 1_000_000);
+        }
+
+        long start = System.nanoTime();
+        try (DurableCatalog recovered = DurableCatalog.open(directory, Durability.GROUP_COMMIT, Long.MAX_VALUE)) {
+            System.out.printf("recovered %d products in %d ms, product 0 = %s, last deleted = %s%n",
+                    recovered.size(), (System.nanoTime() - start) / 1_000_000, recovered.get(0), recovered.get(records - 1));
+        }
+    }
+}
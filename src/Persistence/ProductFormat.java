@@ -0,0 +1,72 @@
+package Persistence;
+
+import TemporaryClasses.Product;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+    The on-disk encoding of a Product in change log records and snapshots.
+
+    Deliberately separate from Query_operators.RecordCodec: spill files live for one query and may change format at any time,
+    these files must still be readable after an upgrade. Every log segment and every snapshot stores VERSION in its header
+    and is rejected when it doesn't match, a new format gets a new VERSION (and a decoder for the old one).
+
+    VERSION 1: int id, float price, int name length in bytes (-1 for null), name as UTF-8.
+ */
+final class ProductFormat {
+    static final int VERSION = 1;
+
+    private ProductFormat() {
+    }
+
+    static int encodedSize(Product product) {
+        return 4 + 4 + 4 + (product.name == null ? 0 : utf8Length(product.name));
+    }
+
+    static void encode(Product product, ByteBuffer buffer) {
+        buffer.putInt(product.id);
+        buffer.putFloat(product.price);
+        if (product.name == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] name = product.name.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(name.length);
+        buffer.put(name);
+    }
+
+    static Product decode(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        float price = buffer.getFloat();
+        int length = buffer.getInt();
+        String name = null;
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            name = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new Product(id, name, price);
+    }
+
+    // UTF-8 length without encoding the string, a lone surrogate is encoded as '?' (1 byte)
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
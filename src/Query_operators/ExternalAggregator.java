@@ -0,0 +1,243 @@
+package Query_operators;
+
+import TemporaryClasses.Employee;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+    Group by with a memory budget (hybrid hash aggregation), for when groupingBy(...) has too many groups to fit in the heap.
+
+    1. Records are aggregated into an in-memory HashMap<key, accumulator> like Collectors.groupingBy does.
+    2. When the map grows past the memory budget every (key, partial accumulator) pair is written to one of PARTITIONS temp files,
+       chosen by the hash of the key, and the map is emptied (spill). The same key always lands in the same partition.
+    3. result() finishes one partition at a time: it reads the partial accumulators of that partition back and merges them.
+       A partition holds roughly 1/PARTITIONS of the groups, so it fits in memory. If one still doesn't, it is spilled again
+       with a different hash (recursively), so even badly skewed keys degrade gracefully instead of throwing OutOfMemoryError.
+    4. The result is a lazy Stream of entries, only one partition is in memory at a time. Closing the stream deletes the temp files.
+
+    The spill I/O buffers are off-heap and come on top of the budget: while spilling PARTITIONS write buffers of
+    budget / PARTITIONS bytes (8 KB..1 MB) are held, i.e. about one more budget of native memory. result() flushes and drops
+    them before it starts reading, then one read buffer plus the write buffers of a re-spilled partition are live at a time.
+
+    The accumulator is functional: accumulate(acc, record) and merge(acc1, acc2) return the new accumulator
+    (they may also update and return acc1). Groups come out in no particular order.
+
+    e.g. average salary by age:
+        new ExternalAggregator<Employee, Integer, double[], Double>(Employee::getAge, () -> new double[2],
+                (acc, e) -> { acc[0] += e.getSalary(); acc[1]++; return acc; },
+                (a, b) -> { a[0] += b[0]; a[1] += b[1]; return a; },
+                acc -> acc[0] / acc[1],
+                RecordCodec.INT, RecordCodec.DOUBLE_ARRAY, 64L << 20);
+ */
+public final class ExternalAggregator<T, K, A, R> {
+    private static final int PARTITIONS = 32;
+    private static final int MAX_LEVEL = 4;
+
+    private final Function<? super T, ? extends K> classifier;
+    private final Supplier<A> initial;
+    private final BiFunction<A, ? super T, A> accumulator;
+    private final BinaryOperator<A> merger;
+    private final Function<A, R> finisher;
+    private final RecordCodec<K> keyCodec;
+    private final RecordCodec<A> accumulatorCodec;
+    private final long memoryBudgetBytes;
+    private final Path tempDirectory;
+    private final SpillMetrics metrics;
+    private final int level;
+    private final int ioBufferSize;
+
+    private Map<K, A> groups = new HashMap<>();
+    private long groupBytes;
+    private List<SpillFile<Map.Entry<K, A>>> partitions;
+    private boolean consumed;
+
+    public ExternalAggregator(Function<? super T, ? extends K> classifier, Supplier<A> initial, BiFunction<A, ? super T, A> accumulator,
+                              BinaryOperator<A> merger, Function<A, R> finisher,
+                              RecordCodec<K> keyCodec, RecordCodec<A> accumulatorCodec, long memoryBudgetBytes) {
+        this(classifier, initial, accumulator, merger, finisher, keyCodec, accumulatorCodec, memoryBudgetBytes,
+                Path.of(System.getProperty("java.io.tmpdir")), new SpillMetrics(), 0);
+    }
+
+    private ExternalAggregator(Function<? super T, ? extends K> classifier, Supplier<A> initial, BiFunction<A, ? super T, A> accumulator,
+                               BinaryOperator<A> merger, Function<A, R> finisher, RecordCodec<K> keyCodec, RecordCodec<A> accumulatorCodec,
+                               long memoryBudgetBytes, Path tempDirectory, SpillMetrics metrics, int level) {
+        this.classifier = classifier;
+        this.initial = initial;
+        this.accumulator = accumulator;
+        this.merger = merger;
+        this.finisher = finisher;
+        this.keyCodec = keyCodec;
+        this.accumulatorCodec = accumulatorCodec;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.tempDirectory = tempDirectory;
+        this.metrics = metrics;
+        this.level = level;
+        this.ioBufferSize = SpillFile.bufferSize(memoryBudgetBytes, PARTITIONS);
+    }
+
+    public void add(T record) {
+        checkOpen();
+        metrics.recordsIn++;
+        K key = classifier.apply(record);
+        A current = groups.get(key);
+        if (current == null) {
+            groups.put(key, accumulator.apply(initial.get(), record));
+            grew(key);
+        } else {
+            A next = accumulator.apply(current, record);
+            if (next != current) {
+                groups.put(key, next);
+            }
+        }
+    }
+
+    public SpillMetrics metrics() {
+        return metrics;
+    }
+
+    public Stream<Map.Entry<K, R>> result() {
+        checkOpen();
+        consumed = true;
+        if (partitions == null) {
+            Map<K, A> finished = groups;
+            groups = null;
+            return finished.entrySet().stream().map(entry -> Map.entry(entry.getKey(), finisher.apply(entry.getValue())));
+        }
+        spill();
+        groups = null;
+        List<SpillFile<Map.Entry<K, A>>> files = partitions;
+        files.forEach(SpillFile::finish); // flushes and releases all write buffers before the first partition is read back
+        return IntStream.range(0, PARTITIONS).boxed()
+                .flatMap(partition -> finishPartition(files.get(partition)))
+                .onClose(() -> files.forEach(SpillFile::close));
+    }
+
+    // merges a partial accumulator, used when re-reading spilled partitions
+    private void absorb(K key, A partial) {
+        A current = groups.get(key);
+        if (current == null) {
+            groups.put(key, partial);
+            grew(key);
+        } else {
+            A next = merger.apply(current, partial);
+            if (next != current) {
+                groups.put(key, next);
+            }
+        }
+    }
+
+    private void grew(K key) {
+        // the accumulator size is taken once, when the group is created
+        groupBytes += keyCodec.encodedSize(key) + accumulatorCodec.encodedSize(groups.get(key)) + ExternalSorter.RECORD_OVERHEAD;
+        metrics.peakBufferedBytes = Math.max(metrics.peakBufferedBytes, groupBytes);
+        if (groupBytes >= memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        if (partitions == null) {
+            partitions = new ArrayList<>(PARTITIONS);
+            RecordCodec<Map.Entry<K, A>> entryCodec = entryCodec();
+            for (int i = 0; i < PARTITIONS; i++) {
+                partitions.add(new SpillFile<>(tempDirectory, "group-" + level + "-" + i + "-", entryCodec, ioBufferSize));
+            }
+            metrics.spillFiles += PARTITIONS;
+        }
+        for (Map.Entry<K, A> entry : groups.entrySet()) {
+            SpillFile<Map.Entry<K, A>> partition = partitions.get(partitionOf(entry.getKey()));
+            long before = partition.bytes();
+            partition.write(entry);
+            metrics.recordsSpilled++;
+            metrics.bytesSpilled += partition.bytes() - before;
+        }
+        groups = new HashMap<>();
+        groupBytes = 0;
+    }
+
+    private Stream<Map.Entry<K, R>> finishPartition(SpillFile<Map.Entry<K, A>> file) {
+        file.finish();
+        metrics.mergePasses++;
+        ExternalAggregator<T, K, A, R> child = new ExternalAggregator<>(classifier, initial, accumulator, merger, finisher,
+                keyCodec, accumulatorCodec, level < MAX_LEVEL ? memoryBudgetBytes : Long.MAX_VALUE, tempDirectory, metrics, level + 1);
+        try (SpillFile<Map.Entry<K, A>>.Reader reader = file.reader()) {
+            while (reader.hasNext()) {
+                Map.Entry<K, A> entry = reader.next();
+                child.absorb(entry.getKey(), entry.getValue());
+            }
+        }
+        file.close();
+        return child.result();
+    }
+
+    private int partitionOf(K key) {
+        int h = Objects.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        // every level uses different bits of the hash, so re-spilling a partition really splits its keys again
+        return (h >>> (level * 5)) & (PARTITIONS - 1);
+    }
+
+    private RecordCodec<Map.Entry<K, A>> entryCodec() {
+        return new RecordCodec<>() {
+            public int encodedSize(Map.Entry<K, A> entry) {
+                return keyCodec.encodedSize(entry.getKey()) + accumulatorCodec.encodedSize(entry.getValue());
+            }
+
+            public void encode(Map.Entry<K, A> entry, ByteBuffer buffer) {
+                keyCodec.encode(entry.getKey(), buffer);
+                accumulatorCodec.encode(entry.getValue(), buffer);
+            }
+
+            public Map.Entry<K, A> decode(ByteBuffer buffer) {
+                K key = keyCodec.decode(buffer);
+                return new AbstractMap.SimpleImmutableEntry<>(key, accumulatorCodec.decode(buffer));
+            }
+        };
+    }
+
+    private void checkOpen() {
+        if (consumed) {
+            throw new IllegalStateException("result() was already called");
+        }
+    }
+
+    public static void main(String[] args) {
+        // average salary over millions of small groups (age/department/name bucket) of 5M employees, with an 8 MB budget for the groups
+        Random random = new Random(3);
+        String[] departments = {"Physics", "Maths", "English", "Chemistry", "Biology"};
+        ExternalAggregator<Employee, String, double[], Double> averageSalary = new ExternalAggregator<>(
+                employee -> employee.getAge() + "/" + employee.getDepartment() + "/" + employee.getName().hashCode() % 20_000,
+                () -> new double[2],
+                (acc, employee) -> {
+                    acc[0] += employee.getSalary();
+                    acc[1]++;
+                    return acc;
+                },
+                (a, b) -> {
+                    a[0] += b[0];
+                    a[1] += b[1];
+                    return a;
+                },
+                acc -> acc[0] / acc[1],
+                RecordCodec.STRING, RecordCodec.DOUBLE_ARRAY, 8L << 20);
+        for (int i = 0; i < 5_000_000; i++) {
+            averageSalary.add(new Employee("Employee" + i, 30000 + random.nextInt(70000), departments[i % departments.length], 22 + random.nextInt(40)));
+        }
+        try (Stream<Map.Entry<String, Double>> result = averageSalary.result()) {
+            System.out.println("groups: " + result.count());
+        }
+        System.out.println(averageSalary.metrics());
+    }
+}
@@ -0,0 +1,227 @@
+package Query_operators;
+
+import TemporaryClasses.Product;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+    Sort with a memory budget (external merge sort), for datasets where stream().sorted() ends in OutOfMemoryError: Java heap space.
+
+    1. Records are buffered in memory until the buffer reaches the memory budget.
+    2. Then the buffer is sorted and written to a temp file as one sorted "run", and the buffer is emptied (spill).
+    3. sorted() merges all runs plus whatever is still buffered with a k-way merge (a PriorityQueue holding the head of every run),
+       reading each run sequentially. When there are more than MAX_FAN_IN runs they are first merged level by level: every
+       MAX_FAN_IN consecutive runs become one run of the next level, so every record is rewritten once per level,
+       O(N log_64 R) spill I/O for R runs, and the number of open files stays bounded.
+    4. The result is a lazy Stream, records are decoded one at a time, so the sorted output never has to fit in memory either.
+       Closing the stream deletes the temp files.
+
+    If the input fits in the budget nothing touches the disk and it is a plain in-memory sort.
+    The sort is stable, equal records keep their input order.
+
+    The budget is checked against an estimate of each record's heap size: its encoded size plus RECORD_OVERHEAD bytes for the
+    object header, the reference in the buffer and the String objects behind it.
+    The spill I/O buffers are off-heap and come on top of the budget: a merge holds MAX_FAN_IN + 1 of them, each
+    budget / (MAX_FAN_IN + 1) bytes (8 KB..1 MB), so at most about one more budget of native memory.
+ */
+public final class ExternalSorter<T> {
+    static final int RECORD_OVERHEAD = 64;
+    private static final int MAX_FAN_IN = 64;
+
+    private final RecordCodec<T> codec;
+    private final Comparator<? super T> comparator;
+    private final long memoryBudgetBytes;
+    private final Path tempDirectory;
+    private final int ioBufferSize;
+    private final SpillMetrics metrics = new SpillMetrics();
+
+    private final List<T> buffer = new ArrayList<>();
+    private final List<SpillFile<T>> runs = new ArrayList<>();
+    private long bufferedBytes;
+    private boolean consumed;
+
+    public ExternalSorter(RecordCodec<T> codec, Comparator<? super T> comparator, long memoryBudgetBytes) {
+        this(codec, comparator, memoryBudgetBytes, Path.of(System.getProperty("java.io.tmpdir")));
+    }
+
+    public ExternalSorter(RecordCodec<T> codec, Comparator<? super T> comparator, long memoryBudgetBytes, Path tempDirectory) {
+        this.codec = codec;
+        this.comparator = comparator;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.tempDirectory = tempDirectory;
+        this.ioBufferSize = SpillFile.bufferSize(memoryBudgetBytes, MAX_FAN_IN + 1);
+    }
+
+    // Convenience for stream pipelines: employees.stream().filter(...) -> ExternalSorter.sort(stream, codec, comparator, budget)
+    public static <T> Stream<T> sort(Stream<T> input, RecordCodec<T> codec, Comparator<? super T> comparator, long memoryBudgetBytes) {
+        ExternalSorter<T> sorter = new ExternalSorter<>(codec, comparator, memoryBudgetBytes);
+        input.forEach(sorter::add);
+        return sorter.sorted();
+    }
+
+    public void add(T record) {
+        if (consumed) {
+            throw new IllegalStateException("sorted() was already called");
+        }
+        buffer.add(record);
+        bufferedBytes += codec.encodedSize(record) + RECORD_OVERHEAD;
+        metrics.recordsIn++;
+        metrics.peakBufferedBytes = Math.max(metrics.peakBufferedBytes, bufferedBytes);
+        if (bufferedBytes >= memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    public SpillMetrics metrics() {
+        return metrics;
+    }
+
+    public Stream<T> sorted() {
+        if (consumed) {
+            throw new IllegalStateException("sorted() can only be called once");
+        }
+        consumed = true;
+        buffer.sort(comparator);
+        if (runs.isEmpty()) {
+            return new ArrayList<>(buffer).stream();
+        }
+        while (runs.size() > MAX_FAN_IN) {
+            mergeLevel();
+        }
+        List<SpillFile<T>> toMerge = new ArrayList<>(runs);
+        runs.clear();
+        MergeIterator merge = new MergeIterator(toMerge, new ArrayList<>(buffer));
+        buffer.clear();
+        bufferedBytes = 0;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(merge::close);
+    }
+
+    private void spill() {
+        buffer.sort(comparator);
+        SpillFile<T> run = new SpillFile<>(tempDirectory, "sort-run-", codec, ioBufferSize);
+        buffer.forEach(run::write);
+        run.finish();
+        runs.add(run);
+        metrics.spillFiles++;
+        metrics.recordsSpilled += run.records();
+        metrics.bytesSpilled += run.bytes();
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    // merges every MAX_FAN_IN consecutive runs into one run of the next level, in order, which keeps the sort stable
+    private void mergeLevel() {
+        List<SpillFile<T>> level = new ArrayList<>(runs);
+        runs.clear();
+        for (int from = 0; from < level.size(); from += MAX_FAN_IN) {
+            List<SpillFile<T>> group = level.subList(from, Math.min(from + MAX_FAN_IN, level.size()));
+            if (group.size() == 1) {
+                runs.add(group.get(0));
+                continue;
+            }
+            SpillFile<T> merged = new SpillFile<>(tempDirectory, "sort-merge-", codec, ioBufferSize);
+            try (MergeIterator merge = new MergeIterator(new ArrayList<>(group), List.of())) {
+                merge.forEachRemaining(merged::write);
+            }
+            merged.finish();
+            metrics.mergePasses++;
+            metrics.spillFiles++;
+            metrics.recordsSpilled += merged.records();
+            metrics.bytesSpilled += merged.bytes();
+            runs.add(merged);
+        }
+    }
+
+    // k-way merge of sorted runs and one sorted in-memory tail, ties go to the older run
+    private final class MergeIterator implements Iterator<T>, AutoCloseable {
+        private final List<SpillFile<T>> files;
+        private final List<SpillFile<T>.Reader> readers = new ArrayList<>();
+        private final PriorityQueue<Head> heads;
+        private final Iterator<T> memory;
+
+        MergeIterator(List<SpillFile<T>> files, List<T> memoryTail) {
+            this.files = files;
+            this.heads = new PriorityQueue<>(files.size() + 1, (a, b) -> {
+                int order = comparator.compare(a.record, b.record);
+                return order != 0 ? order : Integer.compare(a.source, b.source);
+            });
+            for (int i = 0; i < files.size(); i++) {
+                SpillFile<T>.Reader reader = files.get(i).reader();
+                readers.add(reader);
+                if (reader.hasNext()) {
+                    heads.add(new Head(reader.next(), i));
+                }
+            }
+            this.memory = memoryTail.iterator();
+            if (memory.hasNext()) {
+                heads.add(new Head(memory.next(), files.size()));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            T record = head.record;
+            if (head.source < readers.size()) {
+                SpillFile<T>.Reader reader = readers.get(head.source);
+                if (reader.hasNext()) {
+                    head.record = reader.next();
+                    heads.add(head);
+                }
+            } else if (memory.hasNext()) {
+                head.record = memory.next();
+                heads.add(head);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() {
+            readers.forEach(SpillFile.Reader::close);
+            files.forEach(SpillFile::close);
+        }
+
+        private final class Head {
+            T record;
+            final int source;
+
+            Head(T record, int source) {
+                this.record = record;
+                this.source = source;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // 3M products sorted by price then name with a 32 MB budget
+        Random random = new Random(1);
+        ExternalSorter<Product> sorter = new ExternalSorter<>(RecordCodec.PRODUCT,
+                Comparator.comparing(Product::getPrice).thenComparing(Product::getName), 32L << 20);
+        for (int i = 0; i < 3_000_000; i++) {
+            sorter.add(new Product(i, "Product " + i, 1000f + random.nextInt(100_000)));
+        }
+        long start = System.nanoTime();
+        try (Stream<Product> sorted = sorter.sorted()) {
+            Product[] previous = new Product[1];
+            long outOfOrder = sorted.filter(product -> {
+                boolean wrong = previous[0] != null && previous[0].getPrice() > product.getPrice();
+                previous[0] = product;
+                return wrong;
+            }).count();
+            System.out.println("out of order: " + outOfOrder + ", last: " + previous[0]);
+        }
+        System.out.println("merge took " + (System.nanoTime() - start) / 1_000_000 + " ms, " + sorter.metrics());
+    }
+}
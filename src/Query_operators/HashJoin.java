@@ -0,0 +1,424 @@
+package Query_operators;
+
+import TemporaryClasses.Customer;
+import TemporaryClasses.Employee;
+import TemporaryClasses.Product;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+    Parallel, partitioned hash join between two lists.
+
+    Interview question 23 in Streams ("common elements of two lists") builds a HashSet from one list and filters the other, that is a
+    hand rolled semi join running on one thread. HashJoin generalizes it:
+        inner  -> every (left, right) pair with equal keys
+        left   -> like inner, plus every left row without a match (paired with null)
+        semi   -> left rows that have at least one match (question 23)
+        anti   -> left rows that have no match
+
+    How it works (the right side is the "build" side, so pass the smaller list as right):
+    1. Build: the right rows are split into chunks, each chunk computes the keys and counts how many rows fall into each partition (parallel).
+       A prefix sum gives every (chunk, partition) its own output range, so the rows are scattered into partitions without locks (radix partitioning).
+    2. Every partition gets its own small chained hash table (arrays of ints, no Map.Entry objects), partitions are built in parallel.
+       A small partition fits in the CPU cache, which makes probing it cheap.
+    3. Probe: the left rows are split into chunks that are probed in parallel, results are concatenated in chunk order, so the output keeps
+       the order of the left list.
+
+    Keys:
+    -> HashJoin.ofLong(...) takes primitive (or packed, e.g. (a << 32) | b) long keys, keys are compared as longs, no boxing.
+    -> HashJoin.of(...) takes any object key with equals/hashCode. null keys never match, like in SQL.
+
+    e.g.
+        List<String> pairs = HashJoin.of(customers, Customer::getName)
+                                     .with(employees, Employee::getName)
+                                     .inner((customer, employee) -> customer.getName() + " works in " + employee.getDepartment());
+ */
+public final class HashJoin<L, R> {
+    private static final int PROBE_BATCH = 32;
+
+    private final List<L> left;
+    private final List<R> right;
+    private final ToLongFunction<? super L> leftHash;
+    private final ToLongFunction<? super R> rightHash;
+    private final Function<? super L, ?> leftKey;   // null for long keys
+    private final Function<? super R, ?> rightKey;  // null for long keys
+
+    private volatile Table table;
+
+    private HashJoin(List<L> left, ToLongFunction<? super L> leftHash, Function<? super L, ?> leftKey,
+                     List<R> right, ToLongFunction<? super R> rightHash, Function<? super R, ?> rightKey) {
+        this.left = left;
+        this.right = right;
+        this.leftHash = leftHash;
+        this.rightHash = rightHash;
+        this.leftKey = leftKey;
+        this.rightKey = rightKey;
+    }
+
+    public static <L> ObjectKeyed<L> of(List<L> left, Function<? super L, ?> key) {
+        return new ObjectKeyed<>(left, key);
+    }
+
+    public static <L> LongKeyed<L> ofLong(List<L> left, ToLongFunction<? super L> key) {
+        return new LongKeyed<>(left, key);
+    }
+
+    // Collector flavour for stream pipelines: customers.stream().filter(...).collect(HashJoin.joining(employees, ..., ..., ...))
+    public static <L, R, K, O> Collector<L, ?, List<O>> joining(List<R> right, Function<? super L, ? extends K> leftKey,
+                                                                 Function<? super R, ? extends K> rightKey, BiFunction<? super L, ? super R, ? extends O> combiner) {
+        return Collectors.collectingAndThen(Collectors.toList(), left -> of(left, leftKey).with(right, rightKey).inner(combiner));
+    }
+
+    public static final class ObjectKeyed<L> {
+        private final List<L> left;
+        private final Function<? super L, ?> key;
+
+        private ObjectKeyed(List<L> left, Function<? super L, ?> key) {
+            this.left = left;
+            this.key = key;
+        }
+
+        public <R> HashJoin<L, R> with(List<R> right, Function<? super R, ?> rightKey) {
+            return new HashJoin<>(left, row -> objectHash(key.apply(row)), key, right, row -> objectHash(rightKey.apply(row)), rightKey);
+        }
+    }
+
+    public static final class LongKeyed<L> {
+        private final List<L> left;
+        private final ToLongFunction<? super L> key;
+
+        private LongKeyed(List<L> left, ToLongFunction<? super L> key) {
+            this.left = left;
+            this.key = key;
+        }
+
+        public <R> HashJoin<L, R> with(List<R> right, ToLongFunction<? super R> rightKey) {
+            return new HashJoin<>(left, key, null, right, rightKey, null);
+        }
+    }
+
+    public <O> List<O> inner(BiFunction<? super L, ? super R, ? extends O> combiner) {
+        return probe((row, matches, out) -> {
+            for (int i = 0; i < matches.size(); i++) {
+                out.add(combiner.apply(row, right.get(matches.get(i))));
+            }
+        });
+    }
+
+    // right is null for left rows without a match
+    public <O> List<O> leftOuter(BiFunction<? super L, ? super R, ? extends O> combiner) {
+        return probe((row, matches, out) -> {
+            if (matches.isEmpty()) {
+                out.add(combiner.apply(row, null));
+            }
+            for (int i = 0; i < matches.size(); i++) {
+                out.add(combiner.apply(row, right.get(matches.get(i))));
+            }
+        });
+    }
+
+    public List<L> semi() {
+        return probe((row, matches, out) -> {
+            if (!matches.isEmpty()) {
+                out.add(row);
+            }
+        });
+    }
+
+    public List<L> anti() {
+        return probe((row, matches, out) -> {
+            if (matches.isEmpty()) {
+                out.add(row);
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------- probe
+
+    private interface Emitter<L, O> {
+        void emit(L row, IntList matches, List<O> out);
+    }
+
+    private <O> List<O> probe(Emitter<L, O> emitter) {
+        Table built = table();
+        int chunks = chunkCount(left.size());
+        List<List<O>> results = new ArrayList<>(Collections.nCopies(chunks, null));
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            List<O> out = new ArrayList<>();
+            IntList matches = new IntList();
+            long[] hashes = new long[PROBE_BATCH];
+            Object[] keys = new Object[PROBE_BATCH];
+            int[] firstSlots = new int[PROBE_BATCH];
+            int from = chunkStart(left.size(), chunks, chunk);
+            int to = chunkStart(left.size(), chunks, chunk + 1);
+            for (int batchStart = from; batchStart < to; batchStart += PROBE_BATCH) {
+                int batchSize = Math.min(PROBE_BATCH, to - batchStart);
+                // first pass only loads the bucket heads, the loads don't depend on each other so the CPU overlaps their cache misses
+                for (int j = 0; j < batchSize; j++) {
+                    L row = left.get(batchStart + j);
+                    Object key = leftKey == null ? null : leftKey.apply(row);
+                    keys[j] = key;
+                    if (leftKey != null && key == null) {
+                        firstSlots[j] = -1;
+                        continue;
+                    }
+                    hashes[j] = leftKey == null ? leftHash.applyAsLong(row) : objectHash(key);
+                    firstSlots[j] = built.firstSlot(hashes[j]);
+                }
+                // second pass walks the (short) chains and emits in left order
+                for (int j = 0; j < batchSize; j++) {
+                    matches.clear();
+                    built.walk(firstSlots[j], hashes[j], keys[j], matches);
+                    emitter.emit(left.get(batchStart + j), matches, out);
+                }
+            }
+            results.set(chunk, out);
+        });
+        List<O> joined = new ArrayList<>(results.stream().mapToInt(List::size).sum());
+        results.forEach(joined::addAll);
+        return joined;
+    }
+
+    // ---------------------------------------------------------------- build
+
+    private Table table() {
+        Table built = table;
+        if (built == null) {
+            synchronized (this) {
+                built = table;
+                if (built == null) {
+                    table = built = build();
+                }
+            }
+        }
+        return built;
+    }
+
+    private Table build() {
+        int rows = right.size();
+        int partitionBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1));
+        int partitions = 1 << partitionBits;
+        int chunks = chunkCount(rows);
+
+        long[] hashes = new long[rows];
+        Object[] keys = rightKey == null ? null : new Object[rows];
+        int[] partitionOf = new int[rows];
+        int[][] counts = new int[chunks][partitions];
+
+        // 1. keys + histogram per chunk
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int[] count = counts[chunk];
+            for (int i = chunkStart(rows, chunks, chunk), to = chunkStart(rows, chunks, chunk + 1); i < to; i++) {
+                R row = right.get(i);
+                if (keys != null) {
+                    keys[i] = rightKey.apply(row);
+                    if (keys[i] == null) {
+                        partitionOf[i] = -1; // null keys never match
+                        continue;
+                    }
+                    hashes[i] = objectHash(keys[i]);
+                } else {
+                    hashes[i] = rightHash.applyAsLong(row);
+                }
+                int partition = (int) (mix(hashes[i]) >>> (64 - partitionBits));
+                partitionOf[i] = partition;
+                count[partition]++;
+            }
+        });
+
+        // 2. prefix sums -> every (chunk, partition) writes into its own range, no locks
+        int[] partitionStart = new int[partitions + 1];
+        int[][] cursor = new int[chunks][partitions];
+        int offset = 0;
+        for (int p = 0; p < partitions; p++) {
+            partitionStart[p] = offset;
+            for (int c = 0; c < chunks; c++) {
+                cursor[c][p] = offset;
+                offset += counts[c][p];
+            }
+        }
+        partitionStart[partitions] = offset;
+        int[] order = new int[offset];
+        // keys are copied next to their slot, so a probe touches the original row only when the key matched
+        long[] slotHashes = new long[offset];
+        Object[] slotKeys = keys == null ? null : new Object[offset];
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int[] next = cursor[chunk];
+            for (int i = chunkStart(rows, chunks, chunk), to = chunkStart(rows, chunks, chunk + 1); i < to; i++) {
+                if (partitionOf[i] >= 0) {
+                    int slot = next[partitionOf[i]]++;
+                    order[slot] = i;
+                    slotHashes[slot] = hashes[i];
+                    if (slotKeys != null) {
+                        slotKeys[slot] = keys[i];
+                    }
+                }
+            }
+        });
+
+        // 3. one chained hash table per partition, built in parallel
+        int[][] heads = new int[partitions][];
+        int[] chain = new int[offset];
+        IntStream.range(0, partitions).parallel().forEach(p -> {
+            int from = partitionStart[p];
+            int size = partitionStart[p + 1] - from;
+            int buckets = Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+            int[] head = new int[buckets];
+            Arrays.fill(head, -1);
+            // inserting backwards keeps every chain in right list order
+            for (int slot = from + size - 1; slot >= from; slot--) {
+                int bucket = (int) mix(slotHashes[slot]) & (buckets - 1);
+                chain[slot] = head[bucket];
+                head[bucket] = slot;
+            }
+            heads[p] = head;
+        });
+        return new Table(partitionBits, heads, chain, order, slotHashes, slotKeys);
+    }
+
+    private static final class Table {
+        final int partitionBits;
+        final int[][] heads;
+        final int[] chain;
+        final int[] order;    // slot -> row index in the right list
+        final long[] hashes;  // by slot
+        final Object[] keys;  // by slot, null for long keys
+
+        Table(int partitionBits, int[][] heads, int[] chain, int[] order, long[] hashes, Object[] keys) {
+            this.partitionBits = partitionBits;
+            this.heads = heads;
+            this.chain = chain;
+            this.order = order;
+            this.hashes = hashes;
+            this.keys = keys;
+        }
+
+        int firstSlot(long hash) {
+            long mixed = mix(hash);
+            int[] head = heads[(int) (mixed >>> (64 - partitionBits))];
+            return head[(int) mixed & (head.length - 1)];
+        }
+
+        void walk(int firstSlot, long hash, Object key, IntList matches) {
+            for (int slot = firstSlot; slot >= 0; slot = chain[slot]) {
+                if (hashes[slot] == hash && (keys == null || keys[slot].equals(key))) {
+                    matches.add(order[slot]);
+                }
+            }
+        }
+    }
+
+    // growable int array, avoids boxing the matched row indexes
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    private static long objectHash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    // murmur3 finalizer, spreads the key bits over the whole long (ids 1, 2, 3... would otherwise all land in the same partition)
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int chunkCount(int rows) {
+        int perChunk = 16 * 1024;
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 8, (rows + perChunk - 1) / perChunk));
+    }
+
+    private static int chunkStart(int rows, int chunks, int chunk) {
+        return (int) ((long) rows * chunk / chunks);
+    }
+
+    public static void main(String[] args) {
+        // joining customers by name with employees, and by phone number with a "call" list
+        List<Customer> customers = List.of(new Customer("Alice", List.of("123", "456")), new Customer("Bob", List.of("789")), new Customer("Charlie", List.of("101", "112")));
+        List<Employee> employees = List.of(new Employee("Alice", 60000, "Physics", 28), new Employee("Charlie", 75000, "Maths", 29), new Employee("David", 75000, "Maths", 31));
+
+        System.out.println(HashJoin.of(customers, Customer::getName).with(employees, Employee::getName)
+                .inner((customer, employee) -> customer.getName() + " works in " + employee.getDepartment()));
+        System.out.println(HashJoin.of(customers, Customer::getName).with(employees, Employee::getName)
+                .leftOuter((customer, employee) -> customer.getName() + " -> " + (employee == null ? "not an employee" : employee.getDepartment())));
+        System.out.println("customers who are employees: " + HashJoin.of(customers, Customer::getName).with(employees, Employee::getName).semi().size());
+        System.out.println("customers who are not: " + HashJoin.of(customers, Customer::getName).with(employees, Employee::getName).anti().size());
+
+        // phone numbers -> one row per (customer, number), joined with the numbers that called us today, packed as long keys
+        record Phone(Customer customer, long number) {}
+        List<Phone> phones = customers.stream().flatMap(c -> c.getPhoneNumbers().stream().map(n -> new Phone(c, Long.parseLong(n)))).toList();
+        List<Long> calls = List.of(123L, 789L, 789L, 999L);
+        System.out.println(HashJoin.ofLong(phones, Phone::number).with(calls, Long::longValue)
+                .inner((phone, call) -> phone.customer().getName() + " called from " + call));
+
+        // the same join through the Collector
+        List<String> viaCollector = customers.stream().filter(c -> c.getName().startsWith("A"))
+                .collect(HashJoin.joining(employees, Customer::getName, Employee::getName, (c, e) -> c.getName() + "/" + e.getSalary()));
+        System.out.println(viaCollector);
+
+        // 2M products x 10M sales (product id), parallel join vs a single threaded HashMap join
+        Random random = new Random(7);
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 2_000_000; i++) {
+            products.add(new Product(i, "Product " + i, 100 + random.nextInt(1000)));
+        }
+        List<Product> sales = new ArrayList<>();
+        for (int i = 0; i < 10_000_000; i++) {
+            sales.add(products.get(random.nextInt(products.size())));
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            double revenue = HashJoin.ofLong(sales, Product::getId).with(products, Product::getId)
+                    .inner((sale, product) -> product.getPrice()).stream().mapToDouble(Float::doubleValue).sum();
+            long parallelMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            Map<Integer, Product> byId = new HashMap<>();
+            products.forEach(product -> byId.put(product.getId(), product));
+            List<Float> joined = new ArrayList<>();
+            for (Product sale : sales) {
+                Product product = byId.get(sale.getId());
+                if (product != null) {
+                    joined.add(product.getPrice());
+                }
+            }
+            double expected = joined.stream().mapToDouble(Float::doubleValue).sum();
+            long hashMapMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("round %d: parallel hash join %d ms, HashMap join %d ms, same result=%b%n", round, parallelMs, hashMapMs, revenue == expected);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package Query_operators;
+
+import TemporaryClasses.Employee;
+import TemporaryClasses.Product;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+    Compact binary encoding of a record into a ByteBuffer, used wherever records leave the heap (spill files).
+    Strings are written as an int length followed by UTF-8 bytes (length -1 for null), numbers in their primitive width.
+
+    encodedSize() must return the exact number of bytes encode() writes, callers use it to reserve buffer space.
+ */
+public interface RecordCodec<T> {
+    int encodedSize(T record);
+
+    void encode(T record, ByteBuffer buffer);
+
+    T decode(ByteBuffer buffer);
+
+    RecordCodec<Integer> INT = new RecordCodec<>() {
+        public int encodedSize(Integer value) { return 4; }
+        public void encode(Integer value, ByteBuffer buffer) { buffer.putInt(value); }
+        public Integer decode(ByteBuffer buffer) { return buffer.getInt(); }
+    };
+
+    RecordCodec<Long> LONG = new RecordCodec<>() {
+        public int encodedSize(Long value) { return 8; }
+        public void encode(Long value, ByteBuffer buffer) { buffer.putLong(value); }
+        public Long decode(ByteBuffer buffer) { return buffer.getLong(); }
+    };
+
+    RecordCodec<Double> DOUBLE = new RecordCodec<>() {
+        public int encodedSize(Double value) { return 8; }
+        public void encode(Double value, ByteBuffer buffer) { buffer.putDouble(value); }
+        public Double decode(ByteBuffer buffer) { return buffer.getDouble(); }
+    };
+
+    // {sum, count} style accumulators
+    RecordCodec<double[]> DOUBLE_ARRAY = new RecordCodec<>() {
+        public int encodedSize(double[] values) { return 4 + values.length * 8; }
+
+        public void encode(double[] values, ByteBuffer buffer) {
+            buffer.putInt(values.length);
+            for (double value : values) {
+                buffer.putDouble(value);
+            }
+        }
+
+        public double[] decode(ByteBuffer buffer) {
+            double[] values = new double[buffer.getInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getDouble();
+            }
+            return values;
+        }
+    };
+
+    RecordCodec<String> STRING = new RecordCodec<>() {
+        public int encodedSize(String value) { return 4 + (value == null ? 0 : utf8Length(value)); }
+
+        public void encode(String value, ByteBuffer buffer) { putString(value, buffer); }
+
+        public String decode(ByteBuffer buffer) { return getString(buffer); }
+    };
+
+    RecordCodec<Product> PRODUCT = new RecordCodec<>() {
+        public int encodedSize(Product product) { return 4 + STRING.encodedSize(product.name) + 4; }
+
+        public void encode(Product product, ByteBuffer buffer) {
+            buffer.putInt(product.id);
+            putString(product.name, buffer);
+            buffer.putFloat(product.price);
+        }
+
+        public Product decode(ByteBuffer buffer) {
+            int id = buffer.getInt();
+            String name = getString(buffer);
+            return new Product(id, name, buffer.getFloat());
+        }
+    };
+
+    RecordCodec<Employee> EMPLOYEE = new RecordCodec<>() {
+        public int encodedSize(Employee employee) {
+            return STRING.encodedSize(employee.getName()) + 8 + STRING.encodedSize(employee.getDepartment()) + 4;
+        }
+
+        public void encode(Employee employee, ByteBuffer buffer) {
+            putString(employee.getName(), buffer);
+            buffer.putDouble(employee.getSalary());
+            putString(employee.getDepartment(), buffer);
+            buffer.putInt(employee.getAge());
+        }
+
+        public Employee decode(ByteBuffer buffer) {
+            String name = getString(buffer);
+            double salary = buffer.getDouble();
+            String department = getString(buffer);
+            return new Employee(name, salary, department, buffer.getInt());
+        }
+    };
+
+    static void putString(String value, ByteBuffer buffer) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // UTF-8 length without encoding the string
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // a lone surrogate is encoded as '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,180 @@
+package Query_operators;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+    A temporary file of length prefixed records, written and read sequentially through one reusable direct buffer (java.nio FileChannel).
+    Layout: [int length][length bytes encoded by the RecordCodec] ...
+    I/O failures are rethrown as UncheckedIOException so the operators can be used inside streams.
+
+    The buffers are off-heap, so they don't count against the -Xmx heap nor against an operator's memory budget. The operators size
+    them with bufferSize(budget, open files): the write buffer is allocated on the first write and dropped by finish(), a Reader
+    holds its own buffer until it is closed.
+ */
+final class SpillFile<T> implements AutoCloseable {
+    static final int MIN_BUFFER_SIZE = 8 << 10;
+    static final int MAX_BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final RecordCodec<T> codec;
+    private final int bufferSize;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long records;
+    private long bytes;
+
+    SpillFile(Path directory, String prefix, RecordCodec<T> codec, int bufferSize) {
+        this.codec = codec;
+        this.bufferSize = bufferSize;
+        try {
+            this.path = Files.createTempFile(directory, prefix, ".spill");
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Splits the memory budget over the files that are open at the same time, MIN_BUFFER_SIZE..MAX_BUFFER_SIZE each.
+    static int bufferSize(long memoryBudgetBytes, int openFiles) {
+        return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, memoryBudgetBytes / openFiles));
+    }
+
+    void write(T record) {
+        int size = codec.encodedSize(record);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, size + 4));
+        }
+        if (buffer.remaining() < size + 4) {
+            flush();
+            if (buffer.capacity() < size + 4) {
+                buffer = ByteBuffer.allocateDirect(size + 4); // a single huge record, rare
+            }
+        }
+        buffer.putInt(size);
+        codec.encode(record, buffer);
+        records++;
+        bytes += size + 4;
+    }
+
+    long records() {
+        return records;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    // Finishes writing and releases the write buffer, the file can then be read with reader(). Calling it again does nothing.
+    void finish() {
+        if (channel == null) {
+            return;
+        }
+        if (buffer != null) {
+            flush();
+            buffer = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        channel = null;
+    }
+
+    Reader reader() {
+        return new Reader();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    final class Reader implements AutoCloseable {
+        private final FileChannel in;
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(bufferSize);
+        private long remaining = records;
+
+        private Reader() {
+            try {
+                in = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            readBuffer.limit(0);
+        }
+
+        boolean hasNext() {
+            return remaining > 0;
+        }
+
+        T next() {
+            fill(4);
+            int size = readBuffer.getInt();
+            fill(size);
+            int end = readBuffer.position() + size;
+            T record = codec.decode(readBuffer);
+            readBuffer.position(end);
+            remaining--;
+            return record;
+        }
+
+        private void fill(int needed) {
+            if (readBuffer.remaining() >= needed) {
+                return;
+            }
+            if (readBuffer.capacity() < needed) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(needed);
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            } else {
+                readBuffer.compact();
+            }
+            try {
+                while (readBuffer.position() < needed) {
+                    if (in.read(readBuffer) < 0) {
+                        throw new IOException("Unexpected end of spill file " + path);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            readBuffer.flip();
+        }
+
+        @Override
+        public void close() {
+            readBuffer = null;
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package Query_operators;
+
+/*
+    Counters of one spilling operator, so a job can report how close it ran to its memory budget.
+    Written by the thread that feeds the operator, read after (or between) batches.
+ */
+public final class SpillMetrics {
+    long recordsIn;
+    long spillFiles;
+    long recordsSpilled;
+    long bytesSpilled;
+    long mergePasses;
+    long peakBufferedBytes;
+
+    public long recordsIn() {
+        return recordsIn;
+    }
+
+    public long spillFiles() {
+        return spillFiles;
+    }
+
+    public long recordsSpilled() {
+        return recordsSpilled;
+    }
+
+    public long bytesSpilled() {
+        return bytesSpilled;
+    }
+
+    public long mergePasses() {
+        return mergePasses;
+    }
+
+    public long peakBufferedBytes() {
+        return peakBufferedBytes;
+    }
+
+    public boolean spilled() {
+        return spillFiles > 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("records=%d, spillFiles=%d, spilledRecords=%d, spilledMB=%.1f, mergePasses=%d, peakBufferedMB=%.1f",
+                recordsIn, spillFiles, recordsSpilled, bytesSpilled / 1e6, mergePasses, peakBufferedBytes / 1e6);
+    }
+}
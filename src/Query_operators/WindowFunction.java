@@ -0,0 +1,108 @@
+package Query_operators;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+/*
+    Incremental aggregate of one window: the accumulator is updated once per event (add), never recomputed from the full window.
+    merge() is needed by session windows, which combine when a late event bridges two sessions.
+    Like ExternalAggregator, add/merge may update the accumulator in place and return it.
+ */
+public interface WindowFunction<T, A, R> {
+    A create();
+
+    A add(A accumulator, T event);
+
+    A merge(A first, A second);
+
+    R result(A accumulator);
+
+    static <T> WindowFunction<T, long[], Long> count() {
+        return new WindowFunction<>() {
+            public long[] create() { return new long[1]; }
+
+            public long[] add(long[] count, T event) {
+                count[0]++;
+                return count;
+            }
+
+            public long[] merge(long[] first, long[] second) {
+                first[0] += second[0];
+                return first;
+            }
+
+            public Long result(long[] count) { return count[0]; }
+        };
+    }
+
+    static <T> WindowFunction<T, double[], Double> sum(ToDoubleFunction<? super T> value) {
+        return new WindowFunction<>() {
+            public double[] create() { return new double[1]; }
+
+            public double[] add(double[] sum, T event) {
+                sum[0] += value.applyAsDouble(event);
+                return sum;
+            }
+
+            public double[] merge(double[] first, double[] second) {
+                first[0] += second[0];
+                return first;
+            }
+
+            public Double result(double[] sum) { return sum[0]; }
+        };
+    }
+
+    // {sum, count}
+    static <T> WindowFunction<T, double[], Double> average(ToDoubleFunction<? super T> value) {
+        return new WindowFunction<>() {
+            public double[] create() { return new double[2]; }
+
+            public double[] add(double[] acc, T event) {
+                acc[0] += value.applyAsDouble(event);
+                acc[1]++;
+                return acc;
+            }
+
+            public double[] merge(double[] first, double[] second) {
+                first[0] += second[0];
+                first[1] += second[1];
+                return first;
+            }
+
+            public Double result(double[] acc) { return acc[1] == 0 ? 0 : acc[0] / acc[1]; }
+        };
+    }
+
+    // The k largest events by value, state is a min heap of at most k events, result is sorted largest first.
+    static <T> WindowFunction<T, PriorityQueue<T>, List<T>> topK(int k, ToDoubleFunction<? super T> value) {
+        Comparator<T> byValue = Comparator.comparingDouble(value);
+        return new WindowFunction<>() {
+            public PriorityQueue<T> create() { return new PriorityQueue<>(k + 1, byValue); }
+
+            public PriorityQueue<T> add(PriorityQueue<T> heap, T event) {
+                if (heap.size() < k) {
+                    heap.add(event);
+                } else if (byValue.compare(event, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(event);
+                }
+                return heap;
+            }
+
+            public PriorityQueue<T> merge(PriorityQueue<T> first, PriorityQueue<T> second) {
+                second.forEach(event -> add(first, event));
+                return first;
+            }
+
+            public List<T> result(PriorityQueue<T> heap) {
+                List<T> top = new ArrayList<>(heap);
+                top.sort(byValue.reversed());
+                return top;
+            }
+        };
+    }
+}
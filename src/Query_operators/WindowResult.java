@@ -0,0 +1,6 @@
+package Query_operators;
+
+// The final value of one window [start, end) of one key. early is true when the window was closed before the watermark passed its end,
+// events for it that arrive later are counted as late, a window is never emitted twice.
+public record WindowResult<K, R>(K key, long start, long end, R value, boolean early) {
+}
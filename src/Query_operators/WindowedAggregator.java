@@ -0,0 +1,330 @@
+package Query_operators;
+
+import TemporaryClasses.Employee;
+import TemporaryClasses.Product;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+    Continuous aggregation over an endless, timestamped event feed, grouped by key and by time window.
+    The aggregations in Streams (sum, average, max, groupingBy) need the whole list, a feed never ends, so instead:
+
+    1. Every event updates the accumulator of each window it belongs to (see Windows and WindowFunction), O(1) per window.
+    2. Events may arrive out of order. The watermark = highest timestamp seen - allowedLateness is the point in time up to which
+       we assume everything has arrived. A window fires (its result is emitted to the sink and its state is dropped) as soon as
+       the watermark passes its end.
+    3. An event whose windows have all fired already is late: it is dropped and counted in lateEvents().
+    4. State is bounded: at most maxOpenWindows windows are kept, when there would be more, the window that ends first is fired
+       early (WindowResult.early() == true). Keys without open windows are forgotten.
+    5. A window is emitted once. After an early fire the key is marked closed up to the end of that window, later events for that
+       time (window end <= mark for tumbling/sliding, timestamp < mark for sessions) are late, like events behind the watermark,
+       instead of opening a second, partial window that would be reported as complete. Marks are dropped once the watermark passes
+       them. At most maxOpenWindows marks are kept, when there are more the oldest is folded into one mark for all keys,
+       which may count a few more events as late but never emits a window twice.
+
+    Open windows sit in a TreeSet ordered by end, so firing costs O(log n) per window and an event costs O(windows per event).
+    A session that grows is taken out and put back with its new end, so there is exactly one entry per open window.
+    Not thread safe, feed it from one thread (e.g. the thread consuming the price feed).
+
+    e.g. average price per product every second, tolerating events up to 200 ms late:
+        WindowedAggregator<Product, Integer, double[], Double> avg = new WindowedAggregator<>(Windows.tumbling(1000),
+                Product::getId, WindowFunction.average(Product::getPrice), 200, 100_000, result -> System.out.println(result));
+        avg.accept(tick.timestamp(), tick.product());
+ */
+public final class WindowedAggregator<T, K, A, R> {
+    private final Windows windows;
+    private final Function<? super T, ? extends K> keyOf;
+    private final WindowFunction<? super T, A, R> function;
+    private final long allowedLateness;
+    private final int maxOpenWindows;
+    private final Consumer<? super WindowResult<K, R>> sink;
+
+    private final Map<K, List<Window>> openByKey = new HashMap<>();
+    private final TreeSet<Window> byEnd = new TreeSet<>(Comparator.comparingLong((Window w) -> w.end).thenComparingLong(w -> w.id));
+    private final Map<K, Closed> closedByKey = new HashMap<>();
+    private final TreeSet<Closed> closedByEnd = new TreeSet<>(Comparator.comparingLong((Closed c) -> c.end).thenComparingLong(c -> c.id));
+    private long closedForAllKeys = Long.MIN_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long watermark = Long.MIN_VALUE;
+    private long nextId;
+
+    private long events;
+    private long lateEvents;
+    private long firedWindows;
+    private long earlyWindows;
+
+    public WindowedAggregator(Windows windows, Function<? super T, ? extends K> keyOf, WindowFunction<? super T, A, R> function,
+                              long allowedLateness, int maxOpenWindows, Consumer<? super WindowResult<K, R>> sink) {
+        if (allowedLateness < 0) {
+            throw new IllegalArgumentException("allowed lateness must not be negative");
+        }
+        if (maxOpenWindows < 1) {
+            throw new IllegalArgumentException("at least one window must be allowed to stay open");
+        }
+        this.windows = windows;
+        this.keyOf = keyOf;
+        this.function = function;
+        this.allowedLateness = allowedLateness;
+        this.maxOpenWindows = maxOpenWindows;
+        this.sink = sink;
+    }
+
+    public void accept(long timestamp, T event) {
+        events++;
+        K key = keyOf.apply(event);
+        boolean assigned = windows.kind == Windows.Kind.SESSION ? addToSession(key, timestamp, event) : addToWindows(key, timestamp, event);
+        if (!assigned) {
+            lateEvents++;
+        }
+        if (timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+            advanceWatermark(timestamp - allowedLateness);
+        }
+        while (byEnd.size() > maxOpenWindows) {
+            fire(byEnd.pollFirst(), true);
+        }
+    }
+
+    // Lets time move on without events, e.g. from a clock tick when the feed is idle.
+    public void advanceWatermark(long newWatermark) {
+        if (newWatermark <= watermark) {
+            return;
+        }
+        watermark = newWatermark;
+        while (!byEnd.isEmpty() && byEnd.first().end <= watermark) {
+            fire(byEnd.pollFirst(), false);
+        }
+        // behind the watermark a mark adds nothing
+        while (!closedByEnd.isEmpty() && closedByEnd.first().end <= watermark) {
+            closedByKey.remove(closedByEnd.pollFirst().key);
+        }
+    }
+
+    // Fires every open window, e.g. when the feed ends.
+    public void flush() {
+        while (!byEnd.isEmpty()) {
+            fire(byEnd.pollFirst(), false);
+        }
+    }
+
+    public long watermark() {
+        return watermark;
+    }
+
+    public long events() {
+        return events;
+    }
+
+    public long lateEvents() {
+        return lateEvents;
+    }
+
+    public long firedWindows() {
+        return firedWindows;
+    }
+
+    public long earlyWindows() {
+        return earlyWindows;
+    }
+
+    public int openWindows() {
+        return byEnd.size();
+    }
+
+    // keys marked closed after an early fire
+    public int closedKeys() {
+        return closedByEnd.size();
+    }
+
+    // tumbling and sliding: every window [start, start + size) with start on the slide grid and start <= timestamp < end
+    private boolean addToWindows(K key, long timestamp, T event) {
+        boolean assigned = false;
+        long closed = Math.max(watermark, closedUntil(key));
+        long lastStart = Math.floorDiv(timestamp, windows.slide) * windows.slide;
+        for (long start = lastStart; start > timestamp - windows.size; start -= windows.slide) {
+            long end = start + windows.size;
+            if (end <= closed) {
+                break; // this and every earlier window has fired already
+            }
+            List<Window> open = openByKey.computeIfAbsent(key, k -> new ArrayList<>(4));
+            Window window = find(open, start);
+            if (window == null) {
+                window = open(key, open, start, end, function.create());
+            }
+            window.accumulator = function.add(window.accumulator, event);
+            assigned = true;
+        }
+        return assigned;
+    }
+
+    // sessions: [timestamp, timestamp + gap) merged with every open session of the key it touches, the first one is extended in place
+    private boolean addToSession(K key, long timestamp, T event) {
+        if (timestamp < closedUntil(key)) {
+            return false; // belongs to a session that was fired early
+        }
+        long start = timestamp;
+        long end = timestamp + windows.size;
+        List<Window> open = openByKey.get(key);
+        Window session = null;
+        if (open != null) {
+            for (Iterator<Window> it = open.iterator(); it.hasNext(); ) {
+                Window touched = it.next();
+                if (touched.start < end && start < touched.end) {
+                    start = Math.min(start, touched.start);
+                    end = Math.max(end, touched.end);
+                    byEnd.remove(touched); // before its end changes, the TreeSet is ordered by end
+                    if (session == null) {
+                        session = touched;
+                    } else {
+                        session.accumulator = function.merge(session.accumulator, touched.accumulator);
+                        it.remove();
+                    }
+                }
+            }
+        }
+        if (session == null) {
+            if (end <= watermark) {
+                return false;
+            }
+            if (open == null) {
+                open = new ArrayList<>(2);
+                openByKey.put(key, open);
+            }
+            session = open(key, open, start, end, function.create());
+        } else {
+            session.start = start;
+            session.end = end;
+            byEnd.add(session);
+        }
+        session.accumulator = function.add(session.accumulator, event);
+        return true;
+    }
+
+    private Window open(K key, List<Window> open, long start, long end, A accumulator) {
+        Window window = new Window(key, start, end, accumulator, nextId++);
+        open.add(window);
+        byEnd.add(window);
+        return window;
+    }
+
+    private Window find(List<Window> open, long start) {
+        for (int i = 0; i < open.size(); i++) {
+            if (open.get(i).start == start) {
+                return open.get(i);
+            }
+        }
+        return null;
+    }
+
+    // the window was already taken out of byEnd
+    private void fire(Window window, boolean early) {
+        List<Window> open = openByKey.get(window.key);
+        open.remove(window);
+        if (open.isEmpty()) {
+            openByKey.remove(window.key);
+        }
+        firedWindows++;
+        if (early) {
+            earlyWindows++;
+            markClosed(window.key, window.end);
+        }
+        sink.accept(new WindowResult<>(window.key, window.start, window.end, function.result(window.accumulator), early));
+    }
+
+    private void markClosed(K key, long end) {
+        Closed mark = closedByKey.get(key);
+        if (mark != null) {
+            if (mark.end >= end) {
+                return;
+            }
+            closedByEnd.remove(mark);
+        }
+        mark = new Closed(key, end, nextId++);
+        closedByKey.put(key, mark);
+        closedByEnd.add(mark);
+        while (closedByEnd.size() > maxOpenWindows) {
+            Closed oldest = closedByEnd.pollFirst();
+            closedByKey.remove(oldest.key);
+            closedForAllKeys = Math.max(closedForAllKeys, oldest.end);
+        }
+    }
+
+    private long closedUntil(K key) {
+        Closed mark = closedByKey.get(key);
+        return mark == null ? closedForAllKeys : Math.max(closedForAllKeys, mark.end);
+    }
+
+    private final class Closed {
+        final K key;
+        final long end;
+        final long id;
+
+        Closed(K key, long end, long id) {
+            this.key = key;
+            this.end = end;
+            this.id = id;
+        }
+    }
+
+    private final class Window {
+        final K key;
+        final long id;
+        long start; // start and end only change for sessions
+        long end;
+        A accumulator;
+
+        Window(K key, long start, long end, A accumulator, long id) {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+            this.accumulator = accumulator;
+            this.id = id;
+        }
+    }
+
+    public static void main(String[] args) {
+        // a simulated price feed: 1000 products, 1 tick per ms, timestamps jitter up to 250 ms out of order, more than the 200 ms we wait for
+        Random random = new Random(11);
+        long[] emitted = new long[3];
+        WindowedAggregator<Product, Integer, double[], Double> averagePrice = new WindowedAggregator<>(Windows.tumbling(1000),
+                Product::getId, WindowFunction.average(Product::getPrice), 200, 100_000, result -> emitted[0]++);
+        WindowedAggregator<Product, String, PriorityQueue<Product>, List<Product>> topThree = new WindowedAggregator<>(Windows.sliding(10_000, 1000),
+                product -> "all", WindowFunction.topK(3, Product::getPrice), 200, 1000, result -> {
+            emitted[1]++;
+            if (result.start() % 100_000 == 0) {
+                System.out.println("top 3 in [" + result.start() + ", " + result.end() + "): " + result.value());
+            }
+        });
+        // employee "activity" events, a session ends after 30 s without activity
+        WindowedAggregator<Employee, String, long[], Long> sessions = new WindowedAggregator<>(Windows.session(30_000),
+                Employee::getName, WindowFunction.count(), 1000, 10_000, result -> emitted[2]++);
+        List<Employee> employees = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            employees.add(new Employee("Employee" + i, 50000, "Maths", 30));
+        }
+
+        int ticks = 3_000_000;
+        long start = System.nanoTime();
+        for (int time = 0; time < ticks; time++) {
+            long timestamp = Math.max(0, time - random.nextInt(250));
+            int id = random.nextInt(1000);
+            Product tick = new Product(id, "Product " + id, 1000f + random.nextInt(500) + (time % 100_000 == 0 ? 10_000 : 0));
+            averagePrice.accept(timestamp, tick);
+            topThree.accept(timestamp, tick);
+            if (random.nextInt(20) == 0) {
+                // employees are active in bursts
+                Employee employee = employees.get((time / 60_000 * 7 + random.nextInt(10)) % employees.size());
+                sessions.accept(time, employee);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        averagePrice.flush();
+        topThree.flush();
+        sessions.flush();
+        System.out.printf("%d events, %.0f ns per event (all three operators)%n", ticks, nanos / (double) ticks);
+        System.out.println("average windows: " + emitted[0] + ", late events: " + averagePrice.lateEvents());
+        System.out.println("top-k windows: " + emitted[1] + ", session windows: " + emitted[2]);
+    }
+}
@@ -0,0 +1,50 @@
+package Query_operators;
+
+/*
+    Which windows an event belongs to (timestamps and sizes in milliseconds, or any other unit as long as it is consistent).
+        tumbling(size)        -> fixed, non overlapping windows [0, size), [size, 2*size) ... every event is in exactly one window.
+        sliding(size, slide)  -> windows of length size starting every slide, an event is in size/slide windows.
+                                 e.g. sliding(10_000, 1_000) = "the last 10 seconds", updated every second.
+        session(gap)          -> one window per burst of activity of a key, it closes when the key is quiet for gap.
+                                 Sessions grow and merge as events arrive, so they have no fixed start.
+ */
+public final class Windows {
+    enum Kind { TUMBLING, SLIDING, SESSION }
+
+    final Kind kind;
+    final long size;
+    final long slide;
+
+    private Windows(Kind kind, long size, long slide) {
+        if (size <= 0 || slide <= 0) {
+            throw new IllegalArgumentException("window size, slide and gap must be positive");
+        }
+        this.kind = kind;
+        this.size = size;
+        this.slide = slide;
+    }
+
+    public static Windows tumbling(long size) {
+        return new Windows(Kind.TUMBLING, size, size);
+    }
+
+    public static Windows sliding(long size, long slide) {
+        if (slide > size) {
+            throw new IllegalArgumentException("slide must not be larger than the window size");
+        }
+        return new Windows(Kind.SLIDING, size, slide);
+    }
+
+    public static Windows session(long gap) {
+        return new Windows(Kind.SESSION, gap, gap);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case TUMBLING -> "tumbling(" + size + ")";
+            case SLIDING -> "sliding(" + size + ", " + slide + ")";
+            case SESSION -> "session(" + size + ")";
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package Query_server;
+
+import java.util.Arrays;
+
+/*
+    Fixed size latency histogram (the idea behind HdrHistogram, simplified).
+    -> Values below 32 ns get their own bucket, above that every power of two is split into 16 linear sub buckets,
+       so every recorded value is kept with ~6% precision.
+    -> record() is a couple of bit operations plus one array increment, no allocation, so it can sit on the hot path.
+    -> The whole range of long fits in < 1000 buckets, percentiles are computed by walking the counts.
+    Not thread safe, use one histogram per thread and merge() them.
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[LINEAR + (64 - 5) * SUB_BUCKETS];
+    private long total;
+    private long max;
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        max = 0;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    // percentile in [0, 100], e.g. 99.0 for p99
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public String summary() {
+        return String.format("count=%d p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                total, percentile(50) / 1000, percentile(90) / 1000, percentile(99) / 1000, percentile(99.9) / 1000, max / 1000);
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // >= 5
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (magnitude - 5) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int magnitude = (index - LINEAR) / SUB_BUCKETS + 5;
+        int subBucket = (index - LINEAR) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+        return lower + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,279 @@
+package Query_server;
+
+import Concurrent_collections.PersistentVector;
+import Concurrent_collections.VersionedList;
+import Rule_engine.*;
+import TemporaryClasses.Employee;
+import TemporaryClasses.Product;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/*
+    In-memory data the query server answers from, plus the line protocol interpreter.
+
+    Protocol, one request per line, one response line per request ("OK ..." or "ERR ..."), in the same order:
+        PING
+        COUNT   <products|employees> [WHERE <field> <op> <value> [AND|OR ...]]
+        SUM     <products|employees> <field> [WHERE ...]
+        FILTER  <products|employees> [WHERE ...] [LIMIT n]          -> count and the first n records
+        GROUPBY <products|employees> <keyField> COUNT|SUM <field>|AVG <field> [WHERE ...]
+        TOPK    <products|employees> <field> <k> [WHERE ...]
+        STATS                                                      -> server side latency histogram
+
+    ops: < <= > >= = != for numbers, = startsWith contains for text.
+    e.g. "GROUPBY employees department AVG salary WHERE age >= 30"
+
+    WHERE clauses are compiled with RuleCompiler, the compiled rule is cached (LRU, MAX_CACHED_RULES) so a repeated query only pays
+    for parsing and a client sending ever new literals can't grow the heap without limit.
+    Products live in a VersionedList, every query runs on one pinned snapshot while updates can still be published.
+ */
+public final class QueryCatalog {
+    // WHERE literals come from clients, so every distinct literal is a new rule, keep only the most recently used ones
+    private static final int MAX_CACHED_RULES = 1024;
+
+    private final VersionedList<Product> products;
+    private final List<Employee> employees;
+    private final RuleCompiler compiler = new RuleCompiler(MAX_CACHED_RULES);
+    private final Map<String, Field> fields = new ConcurrentHashMap<>();
+
+    public QueryCatalog(VersionedList<Product> products, List<Employee> employees) {
+        this.products = products;
+        this.employees = employees;
+    }
+
+    // Deterministic sample data so results can be compared between runs.
+    public static QueryCatalog generate(int productCount, int employeeCount) {
+        String[] brands = {"HP", "Dell", "Sony", "Lenovo", "Apple", "Asus", "Acer"};
+        String[] departments = {"Physics", "Maths", "English", "Chemistry", "Biology"};
+        Random random = new Random(42);
+        List<Product> productList = new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            productList.add(new Product(i, brands[i % brands.length] + " Laptop " + i, 15000f + random.nextInt(80000)));
+        }
+        List<Employee> employeeList = new ArrayList<>(employeeCount);
+        for (int i = 0; i < employeeCount; i++) {
+            employeeList.add(new Employee("Employee" + i, 30000 + random.nextInt(70000), departments[i % departments.length], 22 + random.nextInt(40)));
+        }
+        return new QueryCatalog(new VersionedList<>(productList), employeeList);
+    }
+
+    public VersionedList<Product> products() {
+        return products;
+    }
+
+    // Executes one request line, never throws, errors become "ERR <message>".
+    public String execute(String line, LatencyHistogram stats) {
+        try {
+            String[] tokens = line.trim().split("\\s+");
+            String command = tokens[0].toUpperCase();
+            return switch (command) {
+                case "PING" -> "OK PONG";
+                case "STATS" -> "OK " + stats.summary();
+                case "COUNT" -> count(tokens);
+                case "SUM" -> sum(tokens);
+                case "FILTER" -> filter(tokens);
+                case "GROUPBY" -> groupBy(tokens);
+                case "TOPK" -> topK(tokens);
+                default -> "ERR unknown command " + tokens[0];
+            };
+        } catch (RuntimeException e) {
+            return "ERR " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    private String count(String[] tokens) {
+        Dataset<?> dataset = dataset(tokens, 1);
+        long[] count = new long[1];
+        dataset.forEachMatching(where(tokens, 2, dataset.type), record -> count[0]++);
+        return "OK " + count[0];
+    }
+
+    private String sum(String[] tokens) {
+        Dataset<?> dataset = dataset(tokens, 1);
+        return "OK " + format(dataset.sum(arg(tokens, 2), where(tokens, 3, dataset.type)));
+    }
+
+    private String filter(String[] tokens) {
+        Dataset<?> dataset = dataset(tokens, 1);
+        // LIMIT n is only taken off the end, a LIMIT in front of WHERE is then rejected by where() instead of dropping the filter
+        boolean limited = tokens.length >= 4 && tokens[tokens.length - 2].equalsIgnoreCase("LIMIT");
+        int limit = limited ? Integer.parseInt(tokens[tokens.length - 1]) : 10;
+        if (limit < 0) {
+            throw new IllegalArgumentException("LIMIT must be >= 0 but was " + limit);
+        }
+        String[] clause = limited ? Arrays.copyOf(tokens, tokens.length - 2) : tokens;
+        List<?> matches = dataset.matching(where(clause, 2, dataset.type));
+        StringJoiner joiner = new StringJoiner("; ", "OK " + matches.size() + " [", "]");
+        matches.stream().limit(limit).forEach(record -> joiner.add(record.toString()));
+        return joiner.toString();
+    }
+
+    private String groupBy(String[] tokens) {
+        Dataset<?> dataset = dataset(tokens, 1);
+        Field key = field(dataset.type, arg(tokens, 2));
+        String aggregate = arg(tokens, 3).toUpperCase();
+        boolean counting = aggregate.equals("COUNT");
+        if (!counting && !aggregate.equals("SUM") && !aggregate.equals("AVG")) {
+            throw new IllegalArgumentException("expected COUNT, SUM or AVG but got " + tokens[3]);
+        }
+        CompiledProjection<Object> value = counting ? null : dataset.projection(arg(tokens, 4));
+        Map<Object, double[]> groups = new TreeMap<>(); // {sum, count}, sorted keys keep the response stable
+        dataset.forEachMatching(where(tokens, counting ? 4 : 5, dataset.type), record -> {
+            double[] group = groups.computeIfAbsent(key.read(record), k -> new double[2]);
+            group[0] += counting ? 1 : value.applyAsDouble(record);
+            group[1]++;
+        });
+        StringJoiner joiner = new StringJoiner(", ", "OK {", "}");
+        groups.forEach((k, group) -> joiner.add(format(k) + "=" + format(aggregate.equals("AVG") ? group[0] / group[1] : group[0])));
+        return joiner.toString();
+    }
+
+    private String topK(String[] tokens) {
+        Dataset<?> dataset = dataset(tokens, 1);
+        CompiledProjection<Object> value = dataset.projection(arg(tokens, 2));
+        int k = Integer.parseInt(arg(tokens, 3));
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be >= 0 but was " + k);
+        }
+        // min heap of size k, O(n log k) instead of sorting everything, k comes from the client so it doesn't size the heap alone
+        PriorityQueue<Object> heap = new PriorityQueue<>(Math.min(k, dataset.size) + 1, Comparator.comparingDouble(value));
+        dataset.forEachMatching(where(tokens, 4, dataset.type), record -> {
+            heap.add(record);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        });
+        List<Object> top = new ArrayList<>(heap);
+        top.sort(Comparator.comparingDouble(value).reversed());
+        StringJoiner joiner = new StringJoiner("; ", "OK [", "]");
+        top.forEach(record -> joiner.add(record.toString()));
+        return joiner.toString();
+    }
+
+    private Dataset<?> dataset(String[] tokens, int at) {
+        String name = arg(tokens, at).toLowerCase();
+        return switch (name) {
+            case "products" -> {
+                PersistentVector<Product> snapshot = products.snapshot();
+                yield new Dataset<>(Product.class, snapshot, snapshot.size());
+            }
+            case "employees" -> new Dataset<>(Employee.class, employees, employees.size());
+            default -> throw new IllegalArgumentException("unknown dataset " + name);
+        };
+    }
+
+    // WHERE f op v [AND|OR f op v]..., combined left to right. Returns null when there is no WHERE clause.
+    private CompiledRule<Object> where(String[] tokens, int at, Class<?> type) {
+        if (at >= tokens.length) {
+            return null;
+        }
+        if (!tokens[at].equalsIgnoreCase("WHERE")) {
+            throw new IllegalArgumentException("expected WHERE but got " + tokens[at]);
+        }
+        if (at + 1 >= tokens.length) {
+            throw new IllegalArgumentException("empty WHERE clause");
+        }
+        Condition condition = term(type, arg(tokens, at + 1), arg(tokens, at + 2), arg(tokens, at + 3));
+        for (int i = at + 4; i < tokens.length; i += 4) {
+            String connective = tokens[i];
+            if (!connective.equalsIgnoreCase("AND") && !connective.equalsIgnoreCase("OR")) {
+                throw new IllegalArgumentException("expected AND or OR but got " + connective);
+            }
+            if (i + 1 >= tokens.length) {
+                throw new IllegalArgumentException("WHERE clause ends with " + connective);
+            }
+            Condition next = term(type, arg(tokens, i + 1), arg(tokens, i + 2), arg(tokens, i + 3));
+            condition = connective.equalsIgnoreCase("OR") ? condition.or(next) : condition.and(next);
+        }
+        @SuppressWarnings("unchecked")
+        Class<Object> objectType = (Class<Object>) type;
+        return compiler.compile(objectType, condition);
+    }
+
+    private Condition term(Class<?> type, String fieldName, String op, String value) {
+        Field field = field(type, fieldName);
+        if (field.kind() == Field.Kind.TEXT) {
+            return switch (op) {
+                case "=" -> Condition.textEquals(field, value);
+                case "startsWith" -> Condition.startsWith(field, value);
+                case "contains" -> Condition.contains(field, value);
+                default -> throw new IllegalArgumentException("unsupported text operator " + op);
+            };
+        }
+        Condition.Comparison comparison = switch (op) {
+            case "<" -> Condition.Comparison.LT;
+            case "<=" -> Condition.Comparison.LE;
+            case ">" -> Condition.Comparison.GT;
+            case ">=" -> Condition.Comparison.GE;
+            case "=" -> Condition.Comparison.EQ;
+            case "!=" -> Condition.Comparison.NE;
+            default -> throw new IllegalArgumentException("unsupported number operator " + op);
+        };
+        return Condition.compare(new Projection.FieldValue(field), comparison, Projection.constant(Double.parseDouble(value)));
+    }
+
+    // getters are resolved with reflection, do it once per field and not once per request
+    private Field field(Class<?> type, String name) {
+        return fields.computeIfAbsent(type.getSimpleName() + "." + name, k -> Field.of(type, name));
+    }
+
+    private static String arg(String[] tokens, int at) {
+        if (at >= tokens.length) {
+            throw new IllegalArgumentException("missing argument " + at + " in " + String.join(" ", tokens));
+        }
+        return tokens[at];
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double number && number == Math.rint(number) && Math.abs(number) < 1e15) {
+            return Long.toString(number.longValue());
+        }
+        return String.valueOf(value);
+    }
+
+    // A snapshot of one dataset for the duration of a single request.
+    private final class Dataset<T> {
+        final Class<T> type;
+        final Iterable<T> rows;
+        final int size;
+
+        Dataset(Class<T> type, Iterable<T> rows, int size) {
+            this.type = type;
+            this.rows = rows;
+            this.size = size;
+        }
+
+        // scans the snapshot without building an intermediate list
+        void forEachMatching(CompiledRule<Object> rule, Consumer<Object> action) {
+            rows.forEach(row -> {
+                if (rule == null || rule.test(row)) {
+                    action.accept(row);
+                }
+            });
+        }
+
+        List<T> matching(CompiledRule<Object> rule) {
+            List<T> matches = new ArrayList<>();
+            rows.forEach(row -> {
+                if (rule == null || rule.test(row)) {
+                    matches.add(row);
+                }
+            });
+            return matches;
+        }
+
+        double sum(String fieldName, CompiledRule<Object> rule) {
+            CompiledProjection<Object> value = projection(fieldName);
+            double[] sum = new double[1];
+            forEachMatching(rule, row -> sum[0] += value.applyAsDouble(row));
+            return sum[0];
+        }
+
+        @SuppressWarnings("unchecked")
+        CompiledProjection<Object> projection(String fieldName) {
+            return compiler.compile((Class<Object>) type, new Projection.FieldValue(field(type, fieldName)));
+        }
+    }
+}
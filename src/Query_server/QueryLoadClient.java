@@ -0,0 +1,120 @@
+package Query_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Load generator for QueryServer.
+    Opens N connections (one thread each), every thread sends a batch of `depth` pipelined requests in one write, then reads the
+    `depth` response lines. Latency of a request = time from sending its batch until its response line arrives.
+    At the end throughput and the merged latency histogram (p50/p99/p99.9) are printed.
+
+    usage: QueryLoadClient [port] [connections] [pipelineDepth] [seconds]
+ */
+public final class QueryLoadClient {
+    private static final String[] QUERIES = {
+            "PING",
+            "COUNT products WHERE price > 50000",
+            "SUM employees salary WHERE department = Physics",
+            "TOPK products price 5 WHERE name startsWith Dell",
+            "GROUPBY employees department AVG salary WHERE age >= 30",
+            "FILTER products WHERE price >= 94990 LIMIT 3",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : QueryServer.DEFAULT_PORT;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        run(port, connections, depth, seconds);
+    }
+
+    public static void run(int port, int connections, int depth, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Worker worker = new Worker(port, depth, deadline, i);
+            workers.add(worker);
+            worker.start();
+        }
+        LatencyHistogram total = new LatencyHistogram();
+        long errors = 0;
+        for (Worker worker : workers) {
+            worker.join();
+            total.merge(worker.latency);
+            errors += worker.errors;
+        }
+        System.out.printf("%d connections, pipeline depth %d: %.0f requests/sec, %d errors%n",
+                connections, depth, total.count() / (double) seconds, errors);
+        System.out.println("latency " + total.summary());
+    }
+
+    private static final class Worker extends Thread {
+        final int port;
+        final int depth;
+        final long deadline;
+        final int offset;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long errors;
+
+        Worker(int port, int depth, long deadline, int offset) {
+            super("load-client-" + offset);
+            this.port = port;
+            this.depth = depth;
+            this.deadline = deadline;
+            this.offset = offset;
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+                ByteBuffer in = ByteBuffer.allocate(256 * 1024);
+                int next = offset;
+                while (System.nanoTime() < deadline) {
+                    out.clear();
+                    for (int i = 0; i < depth; i++) {
+                        out.put((QUERIES[next++ % QUERIES.length] + "\n").getBytes(StandardCharsets.US_ASCII));
+                    }
+                    out.flip();
+                    long sent = System.nanoTime();
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                    int received = 0;
+                    while (received < depth) {
+                        if (channel.read(in) < 0) {
+                            throw new IOException("server closed the connection");
+                        }
+                        in.flip();
+                        byte[] bytes = in.array();
+                        int lineStart = 0;
+                        for (int i = 0; i < in.limit(); i++) {
+                            if (bytes[i] == '\n') {
+                                latency.record(System.nanoTime() - sent);
+                                if (bytes[lineStart] != 'O') {
+                                    errors++;
+                                }
+                                received++;
+                                lineStart = i + 1;
+                            }
+                        }
+                        in.position(lineStart);
+                        in.compact();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(getName() + ": " + e.getMessage());
+                errors++;
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package Query_server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Long running, non blocking query server (java.nio), one selector thread for I/O plus a pool of worker threads for queries.
+
+    Why a resident server instead of running a main() per query?
+    -> Every new JVM pays startup, class loading and JIT warm-up before the first query runs. A resident process pays it once,
+       after that queries run on hot, JIT compiled code against data that is already in memory.
+
+    How it works:
+    1. One Selector watches the listening socket and all client sockets, one thread does all socket I/O, no thread per client.
+    2. Each connection owns one read buffer and one write buffer that are reused for its whole life (no per request buffers).
+    3. Pipelining: a client may send many request lines without waiting. The complete lines found by one read are handed to the
+       worker pool as one batch and executed in order, so a full scan (GROUPBY, FILTER) never blocks the selector thread and
+       the other connections. The worker posts the responses back to the selector thread (completed queue + wakeup()).
+    4. Response batching: the responses of one batch are appended to the write buffer and flushed with a single write() call.
+    5. Ordering and backpressure: a connection has at most one batch in flight and we stop reading its requests (OP_READ off)
+       until that batch is answered and its responses are written, so responses keep the request order.
+    6. The service time of every request is recorded into a LatencyHistogram, ask for it with the STATS command.
+
+    Lines are ASCII and at most READ_BUFFER_SIZE bytes long, a longer line is answered with a single ERR and otherwise skipped.
+ */
+public final class QueryServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 9090;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final QueryCatalog catalog;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final LatencyHistogram latency = new LatencyHistogram(); // guarded by itself, workers record into it
+    private final ExecutorService workers;
+    private final Queue<Answered> answered = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private volatile boolean serving;
+
+    // at least a few workers even on small machines, so cheap requests are not queued behind a long scan
+    public QueryServer(QueryCatalog catalog, int port) throws IOException {
+        this(catalog, port, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public QueryServer(QueryCatalog catalog, int port, int workerThreads) throws IOException {
+        this.catalog = catalog;
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "query-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    // Runs the event loop on the calling thread until close() is called.
+    public void serve() throws IOException {
+        serving = true;
+        try {
+            while (running) {
+                selector.select();
+                deliverAnswers();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(key);
+                        }
+                    } catch (IOException e) {
+                        // one broken client must not stop the server
+                        closeConnection(key);
+                    }
+                }
+            }
+        } finally {
+            serving = false;
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = server.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        int read = channel.read(connection.in);
+        if (read < 0) {
+            closeConnection(key);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        byte[] bytes = in.array();
+        int lineStart = in.position();
+        List<String> lines = new ArrayList<>();
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (bytes[i] == '\n') {
+                int end = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+                if (connection.discarding) {
+                    connection.discarding = false; // end of the too long line, it was already answered
+                } else if (end > lineStart) {
+                    lines.add(new String(bytes, lineStart, end - lineStart, StandardCharsets.US_ASCII));
+                }
+                lineStart = i + 1;
+            }
+        }
+        in.position(lineStart);
+        in.compact();
+        if (!in.hasRemaining()) {
+            // a line that doesn't fit gets one error response (in order behind the lines before it), the rest of it is dropped
+            if (!connection.discarding) {
+                lines.add(null);
+                connection.discarding = true;
+            }
+            in.clear();
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        connection.busy = true;
+        updateInterest(key);
+        workers.execute(() -> {
+            // STATS answers from a copy, the shared histogram is only touched under its lock
+            LatencyHistogram stats = new LatencyHistogram();
+            synchronized (latency) {
+                stats.merge(latency);
+            }
+            List<String> responses = new ArrayList<>(lines.size());
+            try {
+                for (String line : lines) {
+                    responses.add(line == null ? "ERR request line too long" : execute(line, stats));
+                }
+            } finally {
+                // always answer, otherwise the connection stays busy and its client waits forever
+                while (responses.size() < lines.size()) {
+                    responses.add("ERR request failed");
+                }
+                answered.add(new Answered(key, responses));
+                selector.wakeup();
+            }
+        });
+    }
+
+    // worker thread, an Error of one request (e.g. OutOfMemoryError) becomes its ERR response and the next request still runs
+    private String execute(String line, LatencyHistogram stats) {
+        long start = System.nanoTime();
+        String response;
+        try {
+            response = catalog.execute(line, stats);
+        } catch (Throwable e) {
+            response = "ERR " + e.getClass().getSimpleName();
+        }
+        long nanos = System.nanoTime() - start;
+        synchronized (latency) {
+            latency.record(nanos);
+        }
+        return response;
+    }
+
+    // selector thread, appends the responses of finished batches and lets their connections read again
+    private void deliverAnswers() {
+        Answered done;
+        while ((done = answered.poll()) != null) {
+            SelectionKey key = done.key;
+            if (!key.isValid()) {
+                continue; // client went away while its batch was running
+            }
+            Connection connection = (Connection) key.attachment();
+            done.responses.forEach(connection::append);
+            connection.busy = false;
+            try {
+                flush(key);
+            } catch (IOException e) {
+                closeConnection(key);
+            }
+        }
+    }
+
+    // One write() for every response produced by the last read, the rest is written when the socket becomes writable again.
+    private void flush(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        out.flip();
+        ((SocketChannel) key.channel()).write(out);
+        out.compact();
+        updateInterest(key);
+    }
+
+    private void updateInterest(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if (connection.out.position() > 0) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(connection.busy ? 0 : SelectionKey.OP_READ);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serving) {
+            selector.wakeup(); // serve() shuts down on its own thread
+        } else {
+            shutdown();
+        }
+    }
+
+    private void shutdown() throws IOException {
+        workers.shutdownNow();
+        if (!selector.isOpen()) {
+            return;
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.channel() != server) {
+                closeConnection(key);
+            }
+        }
+        server.close();
+        selector.close();
+    }
+
+    private record Answered(SelectionKey key, List<String> responses) {
+    }
+
+    private static final class Connection {
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        boolean busy; // a batch of this connection is running on a worker
+        boolean discarding; // dropping the rest of a too long line up to its '\n'
+
+        void append(String response) {
+            int needed = response.length() + 1;
+            if (out.remaining() < needed) {
+                // grow once for big batches, the larger buffer is then kept and reused
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + needed));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            for (int i = 0; i < response.length(); i++) {
+                char c = response.charAt(i);
+                out.put(c < 128 ? (byte) c : (byte) '?');
+            }
+            out.put((byte) '\n');
+        }
+    }
+}
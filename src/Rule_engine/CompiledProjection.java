@@ -0,0 +1,37 @@
+package Rule_engine;
+
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/*
+    A Projection compiled by RuleCompiler into one MethodHandle of type (Object)double, held as a constant by a class of its own
+    (see RuleClasses). sum() runs the whole loop inside that class.
+ */
+public final class CompiledProjection<T> implements ToDoubleFunction<T> {
+    private final Projection source;
+    private final RuleClasses.ProjectionBody body;
+
+    CompiledProjection(Projection source, RuleClasses.ProjectionBody body) {
+        this.source = source;
+        this.body = body;
+    }
+
+    @Override
+    public double applyAsDouble(T record) {
+        return body.apply(record);
+    }
+
+    // Expects a RandomAccess list.
+    public double sum(List<T> records) {
+        return body.sum(records);
+    }
+
+    public Projection source() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledProjection[" + source + "]";
+    }
+}
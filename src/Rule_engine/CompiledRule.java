@@ -0,0 +1,46 @@
+package Rule_engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/*
+    A Condition compiled by RuleCompiler into one MethodHandle of type (Object)boolean, held as a constant by a class of its own
+    (see RuleClasses), so there is no boxing and no chain of Predicate.and() lambdas to walk.
+    filter() and count() run the whole loop inside that class, prefer them over stream().filter(rule) for big lists.
+ */
+public final class CompiledRule<T> implements Predicate<T> {
+    private final Condition source;
+    private final RuleClasses.RuleBody body;
+
+    CompiledRule(Condition source, RuleClasses.RuleBody body) {
+        this.source = source;
+        this.body = body;
+    }
+
+    @Override
+    public boolean test(T record) {
+        return body.test(record);
+    }
+
+    // Indexed loop specialized for this rule, the same shape a hand written filter would have. Expects a RandomAccess list.
+    @SuppressWarnings("unchecked")
+    public List<T> filter(List<T> records) {
+        List<T> matches = new ArrayList<>();
+        body.filter(records, (List<Object>) matches);
+        return matches;
+    }
+
+    public int count(List<T> records) {
+        return body.count(records);
+    }
+
+    public Condition source() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledRule[" + source + "]";
+    }
+}
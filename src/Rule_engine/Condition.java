@@ -0,0 +1,114 @@
+package Rule_engine;
+
+/*
+    Boolean expression over the fields of a record, the data model of a rule.
+    e.g. price > 28000 AND name startsWith "Dell"
+        Condition rule = Condition.gt(Projection.field(Product.class, "price"), 28000)
+                .and(Condition.startsWith(Field.of(Product.class, "name"), "Dell"));
+
+    Unlike Predicate.and()/or(), composing conditions doesn't create any lambdas, it only builds a small tree that RuleCompiler
+    compiles into a single primitive typed method handle. Because conditions are records, two equal trees are equal keys in the rule cache.
+ */
+public sealed interface Condition {
+
+    record Compare(Projection left, Comparison comparison, Projection right) implements Condition {
+        @Override
+        public String toString() {
+            return left + " " + comparison.symbol + " " + right;
+        }
+    }
+
+    record Text(Field field, TextMatch match, String value) implements Condition {
+        public Text {
+            if (field.kind() != Field.Kind.TEXT) {
+                throw new IllegalArgumentException(field + " is not text");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return field.name() + " " + match.name().toLowerCase() + " \"" + value + "\"";
+        }
+    }
+
+    record And(Condition left, Condition right) implements Condition {
+        @Override
+        public String toString() {
+            return "(" + left + " AND " + right + ")";
+        }
+    }
+
+    record Or(Condition left, Condition right) implements Condition {
+        @Override
+        public String toString() {
+            return "(" + left + " OR " + right + ")";
+        }
+    }
+
+    record Not(Condition condition) implements Condition {
+        @Override
+        public String toString() {
+            return "NOT " + condition;
+        }
+    }
+
+    enum Comparison {
+        LT("<"), LE("<="), GT(">"), GE(">="), EQ("=="), NE("!=");
+
+        final String symbol;
+
+        Comparison(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    enum TextMatch { EQUALS, STARTS_WITH, CONTAINS }
+
+    static Condition gt(Projection left, double value) {
+        return new Compare(left, Comparison.GT, Projection.constant(value));
+    }
+
+    static Condition ge(Projection left, double value) {
+        return new Compare(left, Comparison.GE, Projection.constant(value));
+    }
+
+    static Condition lt(Projection left, double value) {
+        return new Compare(left, Comparison.LT, Projection.constant(value));
+    }
+
+    static Condition le(Projection left, double value) {
+        return new Compare(left, Comparison.LE, Projection.constant(value));
+    }
+
+    static Condition eq(Projection left, double value) {
+        return new Compare(left, Comparison.EQ, Projection.constant(value));
+    }
+
+    static Condition compare(Projection left, Comparison comparison, Projection right) {
+        return new Compare(left, comparison, right);
+    }
+
+    static Condition textEquals(Field field, String value) {
+        return new Text(field, TextMatch.EQUALS, value);
+    }
+
+    static Condition startsWith(Field field, String prefix) {
+        return new Text(field, TextMatch.STARTS_WITH, prefix);
+    }
+
+    static Condition contains(Field field, String part) {
+        return new Text(field, TextMatch.CONTAINS, part);
+    }
+
+    default Condition and(Condition other) {
+        return new And(this, other);
+    }
+
+    default Condition or(Condition other) {
+        return new Or(this, other);
+    }
+
+    default Condition negate() {
+        return new Not(this);
+    }
+}
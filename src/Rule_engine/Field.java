@@ -0,0 +1,93 @@
+package Rule_engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Objects;
+
+/*
+    A Field is a named getter of a record class, e.g. Field.of(Product.class, "price") -> Product::getPrice.
+    The getter is resolved once into a MethodHandle and normalized so the compiler only has to deal with two shapes:
+        NUMBER -> (Object)double, int/long/float/double getters are widened to double, no boxing.
+        TEXT   -> (Object)String
+ */
+public final class Field {
+    public enum Kind { NUMBER, TEXT }
+
+    private final Class<?> owner;
+    private final String name;
+    private final Kind kind;
+    private final MethodHandle getter;
+
+    private Field(Class<?> owner, String name, Kind kind, MethodHandle getter) {
+        this.owner = owner;
+        this.name = name;
+        this.kind = kind;
+        this.getter = getter;
+    }
+
+    public static Field of(Class<?> owner, String name) {
+        String getterName = "get" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        try {
+            Method method = owner.getMethod(getterName);
+            MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+            Class<?> returnType = method.getReturnType();
+            if (returnType == String.class) {
+                return new Field(owner, name, Kind.TEXT, handle.asType(MethodType.methodType(String.class, Object.class)));
+            }
+            if (returnType == int.class || returnType == long.class || returnType == float.class || returnType == double.class) {
+                // primitive widening only, explicitCastArguments never boxes here
+                MethodHandle numeric = MethodHandles.explicitCastArguments(handle, MethodType.methodType(double.class, Object.class));
+                return new Field(owner, name, Kind.NUMBER, numeric);
+            }
+            throw new IllegalArgumentException("Unsupported field type " + returnType.getSimpleName() + " for " + owner.getSimpleName() + "." + name);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("No public getter " + getterName + "() on " + owner.getSimpleName(), e);
+        }
+    }
+
+    public Class<?> owner() {
+        return owner;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    MethodHandle getter() {
+        return getter;
+    }
+
+    // Reads the value without compiling a rule, e.g. for group by keys. Numbers come back as Double.
+    public Object read(Object record) {
+        try {
+            return kind == Kind.TEXT ? (String) getter.invokeExact(record) : (Object) (double) getter.invokeExact(record);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot read " + this, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Field other)) return false;
+        return owner == other.owner && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(owner, name);
+    }
+
+    @Override
+    public String toString() {
+        return owner.getSimpleName() + "." + name;
+    }
+}
@@ -0,0 +1,77 @@
+package Rule_engine;
+
+/*
+    Numeric expression over the fields of a record, e.g. price * 1.18 + 50.
+    Projections are plain data (records), they only describe the computation, RuleCompiler turns them into code.
+ */
+public sealed interface Projection {
+
+    record FieldValue(Field field) implements Projection {
+        public FieldValue {
+            if (field.kind() != Field.Kind.NUMBER) {
+                throw new IllegalArgumentException(field + " is not numeric");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return field.name();
+        }
+    }
+
+    record Constant(double value) implements Projection {
+        @Override
+        public String toString() {
+            return Double.toString(value);
+        }
+    }
+
+    record Arithmetic(Projection left, Operator operator, Projection right) implements Projection {
+        @Override
+        public String toString() {
+            return "(" + left + " " + operator.symbol + " " + right + ")";
+        }
+    }
+
+    enum Operator {
+        ADD("+"), SUBTRACT("-"), MULTIPLY("*"), DIVIDE("/");
+
+        final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    static Projection field(Class<?> owner, String name) {
+        return new FieldValue(Field.of(owner, name));
+    }
+
+    static Projection constant(double value) {
+        return new Constant(value);
+    }
+
+    default Projection plus(Projection other) {
+        return new Arithmetic(this, Operator.ADD, other);
+    }
+
+    default Projection minus(Projection other) {
+        return new Arithmetic(this, Operator.SUBTRACT, other);
+    }
+
+    default Projection times(Projection other) {
+        return new Arithmetic(this, Operator.MULTIPLY, other);
+    }
+
+    default Projection dividedBy(Projection other) {
+        return new Arithmetic(this, Operator.DIVIDE, other);
+    }
+
+    default Projection times(double factor) {
+        return times(constant(factor));
+    }
+
+    default Projection plus(double amount) {
+        return plus(constant(amount));
+    }
+}
@@ -0,0 +1,32 @@
+package Rule_engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+/*
+    Bytecode template for compiled projections, see RuleTemplate. VALUE is the projection's (Object)double handle.
+ */
+final class ProjectionTemplate implements RuleClasses.ProjectionBody {
+    private static final MethodHandle VALUE = RuleClasses.classData(MethodHandles.lookup());
+
+    @Override
+    public double apply(Object record) {
+        try {
+            return (double) VALUE.invokeExact(record);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public double sum(List<?> records) {
+        double sum = 0;
+        for (int i = 0, n = records.size(); i < n; i++) {
+            sum += apply(records.get(i));
+        }
+        return sum;
+    }
+}
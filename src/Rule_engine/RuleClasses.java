@@ -0,0 +1,87 @@
+package Rule_engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/*
+    Defines one hidden class per compiled rule/projection.
+
+    Why: a MethodHandle kept in an instance field is just an object to the JIT. Every rule is then called through the same
+    invokeExact call site, the JIT can't inline any rule body into it, and with many rules that call site is megamorphic.
+    A MethodHandle in a static final field is a constant, the JIT inlines the whole handle tree into the method that reads it.
+
+    So every rule gets its own copy of RuleTemplate (ProjectionTemplate for projections), defined from the template's own bytecode
+    with Lookup.defineHiddenClassWithClassData and the compiled handle as class data. In each copy TEST is a different constant,
+    and the count()/filter()/sum() loops are compiled per rule, like a hand written loop for that one rule.
+    test()/apply() called from shared code (e.g. a Stream) still cost one interface call per record.
+
+    The copies are not STRONG, a rule evicted from the RuleCompiler cache is unloaded with its class.
+ */
+final class RuleClasses {
+    interface RuleBody {
+        boolean test(Object record);
+
+        int count(List<?> records);
+
+        void filter(List<?> records, List<Object> matches);
+    }
+
+    interface ProjectionBody {
+        double apply(Object record);
+
+        double sum(List<?> records);
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType TEST = MethodType.methodType(boolean.class, Object.class);
+    private static final MethodType VALUE = MethodType.methodType(double.class, Object.class);
+    private static final byte[] RULE_TEMPLATE = bytecode(RuleTemplate.class);
+    private static final byte[] PROJECTION_TEMPLATE = bytecode(ProjectionTemplate.class);
+
+    private RuleClasses() {
+    }
+
+    static RuleBody rule(MethodHandle test) {
+        return define(RULE_TEMPLATE, test.asType(TEST), RuleBody.class);
+    }
+
+    static ProjectionBody projection(MethodHandle value) {
+        return define(PROJECTION_TEMPLATE, value.asType(VALUE), ProjectionBody.class);
+    }
+
+    // Called from the static initializer of a template copy. The template class itself has no class data and gets null.
+    static MethodHandle classData(MethodHandles.Lookup lookup) {
+        try {
+            return MethodHandles.classData(lookup, "_", MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static <I> I define(byte[] template, MethodHandle handle, Class<I> type) {
+        try {
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(template, handle, true);
+            return type.cast(hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot define a class for " + type.getSimpleName(), e);
+        }
+    }
+
+    private static byte[] bytecode(Class<?> template) {
+        try (InputStream in = template.getResourceAsStream(template.getSimpleName() + ".class")) {
+            if (in == null) {
+                throw new IllegalStateException("Bytecode of " + template.getName() + " not found");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
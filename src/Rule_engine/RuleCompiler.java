@@ -0,0 +1,313 @@
+package Rule_engine;
+
+import TemporaryClasses.Employee;
+import TemporaryClasses.Product;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+    RuleCompiler turns a Condition/Projection tree into ONE method handle per rule.
+
+    Why not just compose Predicates?
+    -> p1.and(p2).or(p3)... creates a lambda per hop. With hundreds of rules each call site sees many different lambda classes (megamorphic),
+       the JIT gives up inlining and every hop is a virtual call. Predicate<Integer>/Function<T, Float> also box at every hop.
+
+    How the compiler avoids that:
+    1. Every getter is resolved once (Field) and widened to a primitive double, so no value is ever boxed.
+    2. The tree is folded into a single MethodHandle with MethodHandles combinators
+       (filterArguments, permuteArguments, guardWithTest for short circuit AND/OR, insertArguments to bake in constants).
+    3. Constants are folded at compile time, e.g. price * 1.18 > 100 with both sides constant never reaches runtime.
+    4. Every compiled rule gets its own hidden class (RuleClasses) that holds the handle in a static final field. For the JIT that
+       handle is a constant, so the whole tree is inlined into that class's test()/count()/filter() instead of being called through
+       one shared, megamorphic invokeExact. count()/filter() run the loop inside that class too, close to a hand written loop.
+    5. Compiled rules are cached by their (structural) Condition, so the same rule coming from many places is compiled only once.
+       The cache is LRU and bounded (maxCached), the classes of evicted rules are unloaded by the GC.
+ */
+public final class RuleCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType NUMBER = MethodType.methodType(double.class, Object.class);
+    private static final MethodType PREDICATE = MethodType.methodType(boolean.class, Object.class);
+
+    private static final MethodHandle ALWAYS_FALSE = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, Object.class);
+    private static final MethodHandle ALWAYS_TRUE = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, Object.class);
+    private static final MethodHandle NOT = helper("not", boolean.class, boolean.class);
+
+    public static final int DEFAULT_MAX_CACHED = 10_000;
+
+    private final Map<Condition, CompiledRule<?>> rules;
+    private final Map<Projection, CompiledProjection<?>> projections;
+
+    public RuleCompiler() {
+        this(DEFAULT_MAX_CACHED);
+    }
+
+    // maxCached rules and maxCached projections are kept, the least recently used one is dropped first
+    public RuleCompiler(int maxCached) {
+        if (maxCached < 1) {
+            throw new IllegalArgumentException("maxCached must be > 0 but was " + maxCached);
+        }
+        this.rules = lruCache(maxCached);
+        this.projections = lruCache(maxCached);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> CompiledRule<T> compile(Class<T> type, Condition condition) {
+        checkOwner(type, condition);
+        return (CompiledRule<T>) cached(rules, condition, c -> new CompiledRule<>(c, RuleClasses.rule(condition(c))));
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> CompiledProjection<T> compile(Class<T> type, Projection projection) {
+        checkOwner(type, projection);
+        return (CompiledProjection<T>) cached(projections, projection, p -> new CompiledProjection<>(p, RuleClasses.projection(projection(p))));
+    }
+
+    // compiling happens outside the lock, two threads may compile the same rule once and the first one wins
+    private static <K, V> V cached(Map<K, V> cache, K key, Function<K, V> compile) {
+        V value = cache.get(key);
+        if (value != null) {
+            return value;
+        }
+        V compiled = compile.apply(key);
+        V raced = cache.putIfAbsent(key, compiled);
+        return raced != null ? raced : compiled;
+    }
+
+    private static <K, V> Map<K, V> lruCache(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    public int cachedRules() {
+        return rules.size();
+    }
+
+    private static MethodHandle condition(Condition condition) {
+        if (condition instanceof Condition.Compare compare) {
+            return compare(compare);
+        }
+        if (condition instanceof Condition.Text text) {
+            MethodHandle match = switch (text.match()) {
+                case EQUALS -> helper("textEquals", boolean.class, String.class, String.class);
+                case STARTS_WITH -> helper("startsWith", boolean.class, String.class, String.class);
+                case CONTAINS -> helper("contains", boolean.class, String.class, String.class);
+            };
+            match = MethodHandles.insertArguments(match, 1, text.value());
+            return MethodHandles.filterArguments(match, 0, text.field().getter());
+        }
+        if (condition instanceof Condition.And and) {
+            // left ? right : false, right is only evaluated when left is true
+            return MethodHandles.guardWithTest(condition(and.left()), condition(and.right()), ALWAYS_FALSE);
+        }
+        if (condition instanceof Condition.Or or) {
+            return MethodHandles.guardWithTest(condition(or.left()), ALWAYS_TRUE, condition(or.right()));
+        }
+        if (condition instanceof Condition.Not not) {
+            return MethodHandles.filterReturnValue(condition(not.condition()), NOT);
+        }
+        throw new IllegalArgumentException("Unknown condition " + condition);
+    }
+
+    private static MethodHandle compare(Condition.Compare compare) {
+        MethodHandle op = helper(compare.comparison().name().toLowerCase(), boolean.class, double.class, double.class);
+        Projection left = fold(compare.left());
+        Projection right = fold(compare.right());
+        if (left instanceof Projection.Constant l && right instanceof Projection.Constant r) {
+            return evaluate(op, l.value(), r.value()) ? ALWAYS_TRUE : ALWAYS_FALSE;
+        }
+        return combine(op, left, right, PREDICATE);
+    }
+
+    private static MethodHandle projection(Projection projection) {
+        projection = fold(projection);
+        if (projection instanceof Projection.FieldValue field) {
+            return field.field().getter();
+        }
+        if (projection instanceof Projection.Constant constant) {
+            return MethodHandles.dropArguments(MethodHandles.constant(double.class, constant.value()), 0, Object.class);
+        }
+        Projection.Arithmetic arithmetic = (Projection.Arithmetic) projection;
+        return combine(arithmetic(arithmetic.operator()), arithmetic.left(), arithmetic.right(), NUMBER);
+    }
+
+    // (double, double)R + two projections of the same record -> (Object)R, a constant side is bound instead of being called
+    private static MethodHandle combine(MethodHandle op, Projection left, Projection right, MethodType resultType) {
+        if (right instanceof Projection.Constant r) {
+            return MethodHandles.filterArguments(MethodHandles.insertArguments(op, 1, r.value()), 0, projection(left));
+        }
+        if (left instanceof Projection.Constant l) {
+            return MethodHandles.filterArguments(MethodHandles.insertArguments(op, 0, l.value()), 0, projection(right));
+        }
+        MethodHandle both = MethodHandles.filterArguments(op, 0, projection(left), projection(right));
+        return MethodHandles.permuteArguments(both, resultType, 0, 0);
+    }
+
+    // constant folding, (2 * 3) + price -> 6.0 + price
+    private static Projection fold(Projection projection) {
+        if (!(projection instanceof Projection.Arithmetic arithmetic)) {
+            return projection;
+        }
+        Projection left = fold(arithmetic.left());
+        Projection right = fold(arithmetic.right());
+        if (left instanceof Projection.Constant l && right instanceof Projection.Constant r) {
+            try {
+                return Projection.constant((double) arithmetic(arithmetic.operator()).invokeExact(l.value(), r.value()));
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new Projection.Arithmetic(left, arithmetic.operator(), right);
+    }
+
+    private static MethodHandle arithmetic(Projection.Operator operator) {
+        return helper(operator.name().toLowerCase(), double.class, double.class, double.class);
+    }
+
+    private static boolean evaluate(MethodHandle op, double left, double right) {
+        try {
+            return (boolean) op.invokeExact(left, right);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void checkOwner(Class<?> type, Object expression) {
+        for (Field field : fields(expression, new ArrayList<>())) {
+            if (!field.owner().isAssignableFrom(type)) {
+                throw new IllegalArgumentException(field + " cannot be read from " + type.getSimpleName());
+            }
+        }
+    }
+
+    private static List<Field> fields(Object expression, List<Field> found) {
+        if (expression instanceof Projection.FieldValue field) {
+            found.add(field.field());
+        } else if (expression instanceof Projection.Arithmetic arithmetic) {
+            fields(arithmetic.left(), found);
+            fields(arithmetic.right(), found);
+        } else if (expression instanceof Condition.Compare compare) {
+            fields(compare.left(), found);
+            fields(compare.right(), found);
+        } else if (expression instanceof Condition.Text text) {
+            found.add(text.field());
+        } else if (expression instanceof Condition.And and) {
+            fields(and.left(), found);
+            fields(and.right(), found);
+        } else if (expression instanceof Condition.Or or) {
+            fields(or.left(), found);
+            fields(or.right(), found);
+        } else if (expression instanceof Condition.Not not) {
+            fields(not.condition(), found);
+        }
+        return found;
+    }
+
+    private static MethodHandle helper(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(RuleCompiler.class, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Primitive building blocks the method handles are assembled from.
+    private static boolean lt(double a, double b) { return a < b; }
+    private static boolean le(double a, double b) { return a <= b; }
+    private static boolean gt(double a, double b) { return a > b; }
+    private static boolean ge(double a, double b) { return a >= b; }
+    private static boolean eq(double a, double b) { return a == b; }
+    private static boolean ne(double a, double b) { return a != b; }
+    private static double add(double a, double b) { return a + b; }
+    private static double subtract(double a, double b) { return a - b; }
+    private static double multiply(double a, double b) { return a * b; }
+    private static double divide(double a, double b) { return a / b; }
+    private static boolean not(boolean value) { return !value; }
+    private static boolean textEquals(String text, String value) { return text != null && text.equals(value); }
+    private static boolean startsWith(String text, String prefix) { return text != null && text.startsWith(prefix); }
+    private static boolean contains(String text, String part) { return text != null && text.contains(part); }
+
+    public static void main(String[] args) {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            products.add(new Product(i, (i % 3 == 0 ? "Dell " : "HP ") + i, 20000f + (i % 20000)));
+        }
+
+        RuleCompiler compiler = new RuleCompiler();
+        Projection price = Projection.field(Product.class, "price");
+        Field name = Field.of(Product.class, "name");
+
+        // price with 18% tax > limit AND (name startsWith "Dell" OR price < 21000), 20 rules that differ only in the limit
+        // so the shared call sites of the lambda version see 20 different predicates, like a rules engine would
+        int ruleCount = 20;
+        List<CompiledRule<Product>> compiled = new ArrayList<>();
+        List<Predicate<Product>> composed = new ArrayList<>();
+        java.util.function.Function<Product, Float> getPrice = Product::getPrice;
+        for (int r = 0; r < ruleCount; r++) {
+            double limit = 30000 + r * 500;
+            Condition rule = Condition.gt(price.times(1.18), limit)
+                    .and(Condition.startsWith(name, "Dell").or(Condition.lt(price, 21000)));
+            compiled.add(compiler.compile(Product.class, rule));
+            // the same rule written with composed lambdas, boxing Float at every hop
+            composed.add(((Predicate<Product>) p -> getPrice.apply(p) * 1.18 > limit)
+                    .and(((Predicate<Product>) p -> p.getName().startsWith("Dell")).or(p -> getPrice.apply(p) < 21000)));
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long compiledCount = 0;
+            for (CompiledRule<Product> rule : compiled) {
+                compiledCount += rule.count(products);
+            }
+            long compiledNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long composedCount = 0;
+            for (Predicate<Product> rule : composed) {
+                composedCount += products.stream().filter(rule).count();
+            }
+            long composedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long handWrittenCount = 0;
+            for (int r = 0; r < ruleCount; r++) {
+                double limit = 30000 + r * 500;
+                for (int i = 0, n = products.size(); i < n; i++) {
+                    Product p = products.get(i);
+                    if (p.getPrice() * 1.18 > limit && (p.getName().startsWith("Dell") || p.getPrice() < 21000)) {
+                        handWrittenCount++;
+                    }
+                }
+            }
+            long handWrittenNanos = System.nanoTime() - start;
+
+            System.out.printf("round %d, %d rules: compiled %d in %d ms, composed %d in %d ms, hand written %d in %d ms%n",
+                    round, ruleCount, compiledCount, compiledNanos / 1_000_000, composedCount, composedNanos / 1_000_000,
+                    handWrittenCount, handWrittenNanos / 1_000_000);
+        }
+
+        // projections and rules over Employee fields, the second compile of an equal rule is a cache hit
+        List<Employee> employees = List.of(
+                new Employee("Alice", 60000, "Physics", 28),
+                new Employee("Bob", 45000, "Physics", 28),
+                new Employee("Charlie", 75000, "Maths", 29));
+        CompiledProjection<Employee> yearlyBonus = compiler.compile(Employee.class, Projection.field(Employee.class, "salary").times(0.1).plus(1000));
+        Condition seniorPhysics = Condition.textEquals(Field.of(Employee.class, "department"), "Physics")
+                .and(Condition.ge(Projection.field(Employee.class, "age"), 28));
+        System.out.println(seniorPhysics + " -> " + compiler.compile(Employee.class, seniorPhysics).filter(employees));
+        System.out.println("total bonus: " + yearlyBonus.sum(employees));
+        System.out.println("same rule reused from cache: " + (compiler.compile(Employee.class, seniorPhysics) == compiler.compile(Employee.class, seniorPhysics)));
+    }
+}
@@ -0,0 +1,45 @@
+package Rule_engine;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+/*
+    Bytecode template for compiled rules, never used directly. RuleClasses defines a hidden copy of this class per rule
+    with the rule's (Object)boolean handle as class data, so TEST is a different constant in every copy.
+ */
+final class RuleTemplate implements RuleClasses.RuleBody {
+    private static final MethodHandle TEST = RuleClasses.classData(MethodHandles.lookup());
+
+    @Override
+    public boolean test(Object record) {
+        try {
+            return (boolean) TEST.invokeExact(record);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int count(List<?> records) {
+        int count = 0;
+        for (int i = 0, n = records.size(); i < n; i++) {
+            if (test(records.get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void filter(List<?> records, List<Object> matches) {
+        for (int i = 0, n = records.size(); i < n; i++) {
+            Object record = records.get(i);
+            if (test(record)) {
+                matches.add(record);
+            }
+        }
+    }
+}
@@ -11,6 +11,10 @@ public class Customer {
         this.phoneNumbers = phoneNumbers;
     }
 
+    public String getName() {
+        return name;
+    }
+
     public List<String> getPhoneNumbers() {
         return phoneNumbers;
     }